@@ -0,0 +1,87 @@
+package study.masystems.purchasingsystem;
+
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.*;
+import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of the city graph from JSON file or from its binary snapshot.
+ * The graph is a square grid with random weights written to a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CityGraphBuilderBenchmark {
+    @Param({"100", "10000", "250000"})
+    public int verticesCount;
+
+    @Param({"false", "true"})
+    public boolean useSnapshot;
+
+    private File graphFile;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        final int side = (int) Math.ceil(Math.sqrt(verticesCount));
+        graphFile = File.createTempFile("CityGraph", ".json");
+        graphFile.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(graphFile, "UTF-8")) {
+            writer.println("{");
+            writer.println("  \"vertices_count\": " + side * side + ",");
+            writer.println("  \"edges\": [");
+            boolean first = true;
+            for (int row = 0; row < side; row++) {
+                for (int column = 0; column < side; column++) {
+                    final int vertex = row * side + column + 1;
+                    if (column + 1 < side) {
+                        first = writeEdge(writer, first, vertex, vertex + 1, 1 + random.nextInt(10));
+                    }
+                    if (row + 1 < side) {
+                        first = writeEdge(writer, first, vertex, vertex + side, 1 + random.nextInt(10));
+                    }
+                }
+            }
+            writer.println();
+            writer.println("  ]");
+            writer.println("}");
+        }
+        if (useSnapshot) {
+            // Write snapshot before measurement.
+            new CityGraphBuilder(true).readSnapshot(graphFile.getPath());
+        }
+    }
+
+    private static boolean writeEdge(PrintWriter writer, boolean first, int source, int target, int weight) {
+        if (!first) {
+            writer.println(",");
+        }
+        writer.print("    {\"vertices\":[" + source + ", " + target + "], \"weight\":" + weight + "}");
+        return false;
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphFile.delete();
+        new File(graphFile.getPath() + CityGraphBuilder.SNAPSHOT_SUFFIX).delete();
+    }
+
+    @Benchmark
+    public SimpleWeightedGraph<Integer, WeightedEdge> read() {
+        return new CityGraphBuilder(useSnapshot).read(graphFile.getPath());
+    }
+
+    @Benchmark
+    public CityGraphSnapshot readSnapshot() throws IOException {
+        return new CityGraphBuilder(useSnapshot).readSnapshot(graphFile.getPath());
+    }
+}
@@ -0,0 +1,79 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buyer table of the best customer proposal for each good and the choice of purchases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProposalTableBenchmark {
+    @Param({"10", "100", "1000"})
+    public int goodsCount;
+
+    @Param({"10", "100", "1000"})
+    public int customerCount;
+
+    private Buyer.ProposalTable proposalTable;
+    private String[] goods;
+    private AID[] customers;
+    private double[] costs;
+    private int[] rests;
+    private Map<String, Integer> quantities;
+    private int cursor = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        goods = new String[goodsCount];
+        for (int i = 0; i < goodsCount; i++) {
+            goods[i] = "good-" + i;
+        }
+        customers = new AID[customerCount];
+        for (int i = 0; i < customerCount; i++) {
+            customers[i] = new AID("customer-" + i + "@bench", AID.ISGUID);
+        }
+        costs = new double[1024];
+        rests = new int[1024];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = 100 + random.nextInt(50);
+            rests[i] = random.nextInt(20);
+        }
+
+        // Goods of one buyer, solved exactly.
+        quantities = new HashMap<>();
+        for (int i = 0; i < Math.min(goodsCount, PurchaseSelector.EXACT_GOODS_LIMIT); i++) {
+            quantities.put(goods[i], 1 + random.nextInt(20));
+        }
+
+        proposalTable = new Buyer.ProposalTable(null, Arrays.asList(goods));
+        for (int i = 0; i < customerCount; i++) {
+            for (String good : goods) {
+                proposalTable.addCustomerProposal(customers[i], good, costs[random.nextInt(1024)], rests[random.nextInt(1024)]);
+            }
+        }
+    }
+
+    @Benchmark
+    public void addCustomerProposal() {
+        cursor = (cursor + 1) & 1023;
+        proposalTable.addCustomerProposal(customers[cursor % customerCount], goods[cursor % goodsCount],
+                costs[cursor], rests[cursor]);
+    }
+
+    @Benchmark
+    public Map<String, AID> choosePurchases() {
+        return proposalTable.choosePurchases(quantities, 500, 50);
+    }
+}
@@ -0,0 +1,89 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.AID;
+import org.openjdk.jmh.annotations.*;
+import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.PurchaseProposal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Customer purchase table: proposals from suppliers and demand of joined buyers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseBenchmark {
+    @Param({"10", "100", "1000"})
+    public int goodsCount;
+
+    @Param({"10", "100", "1000"})
+    public int buyerCount;
+
+    private Customer.Purchase purchase;
+    private String[] goods;
+    private PurchaseProposal[] proposals;
+    private int cursor = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        AID customer = new AID("customer@bench", AID.ISGUID);
+        AID supplier = new AID("supplier@bench", AID.ISGUID);
+
+        goods = new String[goodsCount];
+        Map<String, GoodNeed> goodNeeds = new HashMap<>();
+        for (int i = 0; i < goodsCount; i++) {
+            goods[i] = "good-" + i;
+            goodNeeds.put(goods[i], new GoodNeed(1 + random.nextInt(10), 14));
+        }
+
+        purchase = new Customer.Purchase(customer, goodNeeds);
+        for (String good : goods) {
+            purchase.addProposal(good, new PurchaseProposal(supplier, 100 + random.nextDouble() * 100, buyerCount * 5, 7));
+        }
+        purchase.addOwnDemand();
+        purchase.open();
+
+        for (int i = 0; i < buyerCount; i++) {
+            Demand demand = new Demand();
+            for (int j = 0; j < 1 + random.nextInt(Math.min(goodsCount, 10)); j++) {
+                demand.put(goods[random.nextInt(goodsCount)], 1 + random.nextInt(10));
+            }
+            purchase.addDemand(new AID("buyer-" + i + "@bench", AID.ISGUID), demand);
+        }
+
+        proposals = new PurchaseProposal[1024];
+        for (int i = 0; i < proposals.length; i++) {
+            proposals[i] = new PurchaseProposal(supplier, 50 + random.nextDouble() * 200, buyerCount * 5, random.nextInt(14));
+        }
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & 1023;
+        return cursor;
+    }
+
+    @Benchmark
+    public void addProposal() {
+        final int i = next();
+        purchase.addProposal(goods[i % goodsCount], proposals[i]);
+    }
+
+    @Benchmark
+    public boolean isFormed() {
+        return purchase.isFormed();
+    }
+
+    @Benchmark
+    public int getRest() {
+        return purchase.getRest(goods[next() % goodsCount]);
+    }
+}
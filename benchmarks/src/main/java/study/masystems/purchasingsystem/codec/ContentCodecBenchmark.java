@@ -0,0 +1,75 @@
+package study.masystems.purchasingsystem.codec;
+
+import org.openjdk.jmh.annotations.*;
+import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.PurchaseInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of buyer-customer messages.
+ * The json codec is the flexjson encoding used before binary codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentCodecBenchmark {
+    @Param({JsonContentCodec.LANGUAGE, BinaryContentCodec.LANGUAGE})
+    public String language;
+
+    @Param({"10", "100", "1000"})
+    public int goodsCount;
+
+    private ContentCodec codec;
+    private PurchaseInfo purchaseInfo;
+    private Demand demand;
+    private byte[] encodedPurchaseInfo;
+    private byte[] encodedDemand;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        codec = ContentCodecs.forLanguage(language);
+
+        Map<String, Double> prices = new HashMap<>();
+        Map<String, Integer> rests = new HashMap<>();
+        demand = new Demand("purchase" + random.nextInt() + "_" + System.currentTimeMillis());
+        for (int i = 0; i < goodsCount; i++) {
+            final String good = "good-" + i;
+            prices.put(good, 100 + random.nextDouble() * 100);
+            rests.put(good, random.nextInt(40));
+            demand.put(good, 1 + random.nextInt(20));
+        }
+        purchaseInfo = new PurchaseInfo(7, prices);
+        purchaseInfo.setGoodsRest(rests);
+
+        encodedPurchaseInfo = codec.encodePurchaseInfo(purchaseInfo);
+        encodedDemand = codec.encodeDemand(demand);
+    }
+
+    @Benchmark
+    public byte[] encodePurchaseInfo() {
+        return codec.encodePurchaseInfo(purchaseInfo);
+    }
+
+    @Benchmark
+    public PurchaseInfo decodePurchaseInfo() {
+        return codec.decodePurchaseInfo(encodedPurchaseInfo);
+    }
+
+    @Benchmark
+    public byte[] encodeDemand() {
+        return codec.encodeDemand(demand);
+    }
+
+    @Benchmark
+    public Demand decodeDemand() {
+        return codec.decodeDemand(encodedDemand);
+    }
+}
@@ -0,0 +1,51 @@
+package study.masystems.purchasingsystem.jgrapht;
+
+import org.jgrapht.graph.GraphPathImpl;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of buyer route, which is sent with every delivery proposal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuyerGraphPathBenchmark {
+    @Param({"10", "100", "1000"})
+    public int pathLength;
+
+    private BuyerGraphPath<Integer, WeightedEdge> path;
+    private String serializedPath;
+
+    @Setup
+    public void setup() {
+        SimpleWeightedGraph<Integer, WeightedEdge> graph = new SimpleWeightedGraph<>(WeightedEdge.class);
+        List<WeightedEdge> edges = new ArrayList<>(pathLength);
+        graph.addVertex(1);
+        for (int i = 1; i <= pathLength; i++) {
+            graph.addVertex(i + 1);
+            final WeightedEdge edge = graph.addEdge(i, i + 1);
+            graph.setEdgeWeight(edge, 1 + i % 5);
+            edges.add(edge);
+        }
+        path = new BuyerGraphPath<>(new GraphPathImpl<>(graph, 1, pathLength + 1, edges, 3.0 * pathLength));
+        serializedPath = path.serializePath();
+    }
+
+    @Benchmark
+    public String serializePath() {
+        return path.serializePath();
+    }
+
+    @Benchmark
+    public List<Integer> deserializePath() {
+        return BuyerGraphPath.<Integer>deserializePath(serializedPath);
+    }
+}
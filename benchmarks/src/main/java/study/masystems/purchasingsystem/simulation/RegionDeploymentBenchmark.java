@@ -0,0 +1,59 @@
+package study.masystems.purchasingsystem.simulation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to complete purchases of a synthetic city in one container and in containers of city regions.
+ * Each iteration starts a fresh platform with the same population, measured from the population release.
+ * Agents of all regions see the whole market, so both deployments form purchases of the same population;
+ * an iteration fails unless it completes the same number of purchases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RegionDeploymentBenchmark {
+    private static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    @Param({"1", "4"})
+    public int regions;
+
+    @Param({"200"})
+    public int purchases;
+
+    private SimulationRunner runner;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        runner = new SimulationRunner();
+        runner.parseArguments(new String[]{
+                "--suppliers", "100", "--customers", "200", "--buyers", "2000", "--vertices", "400",
+                "--journal", "", "--regions", String.valueOf(regions)});
+        if (runner.start() < 0) {
+            throw new IllegalStateException("Population is not ready");
+        }
+    }
+
+    @Benchmark
+    public long completePurchases() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (SimulationStats.getPurchasesCompleted() < purchases && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        final long completed = SimulationStats.getPurchasesCompleted();
+        if (completed < purchases) {
+            throw new IllegalStateException(String.format("Completed %d of %d purchases in %d regions",
+                    completed, purchases, regions));
+        }
+        return completed;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        runner.stop();
+    }
+}
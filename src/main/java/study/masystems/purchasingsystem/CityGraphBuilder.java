@@ -1,55 +1,90 @@
 package study.masystems.purchasingsystem;
 
+import jade.util.Logger;
 import org.jgrapht.graph.SimpleWeightedGraph;
-import org.jgrapht.graph.builder.UndirectedWeightedGraphBuilderBase;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Load the city graph. JSON file is the source of truth, its binary snapshot
+ * ({@link #SNAPSHOT_SUFFIX} next to the file) is written on the first load and mapped on later loads.
+ */
 public class CityGraphBuilder {
+    public static final String SNAPSHOT_SUFFIX = ".csr";
+
+    private static Logger logger = Logger.getMyLogger(CityGraphBuilder.class.getName());
+
+    private final boolean useSnapshot;
+
+    public CityGraphBuilder() {
+        this(true);
+    }
+
+    public CityGraphBuilder(boolean useSnapshot) {
+        this.useSnapshot = useSnapshot;
+    }
+
     public SimpleWeightedGraph<Integer, WeightedEdge> read() {
-        String filename = String.join(File.separator, ".", "src", "test", "configuration", "CityGraph.json");
-        Scanner fileScanner = null;
+        return read(String.join(File.separator, ".", "src", "test", "configuration", "CityGraph.json"));
+    }
+
+    /**
+     * @return city graph or <tt>null</tt>, if the file is missing or malformed.
+     */
+    public SimpleWeightedGraph<Integer, WeightedEdge> read(String filename) {
         try {
-            fileScanner = new Scanner(new File(filename)).useDelimiter("\\Z");
+            return readSnapshot(filename).toGraph();
         } catch (FileNotFoundException e) {
-            System.err.print("File not found.");
-            return null;
+            logger.log(Logger.SEVERE, "City graph not found: " + filename);
+        } catch (IOException e) {
+            logger.log(Logger.SEVERE, String.format("Cannot read city graph %s: %s", filename, e.getMessage()));
         }
-        String graphData = fileScanner.next();
-        fileScanner.close();
-
-        JSONObject graphJSON = new JSONObject(graphData);
-        final int vertices_count = graphJSON.getInt("vertices_count");
-
-        final UndirectedWeightedGraphBuilderBase<
-                Integer,
-                WeightedEdge,
-                ? extends SimpleWeightedGraph<Integer,
-                        WeightedEdge>,
-                ?> builder = SimpleWeightedGraph.builder(WeightedEdge.class);
+        return null;
+    }
 
-        for (int i = 0; i < vertices_count; i++) {
-            builder.addVertex(i + 1);
+    /**
+     * Read the city graph in compressed form, without building the graph.
+     */
+    public CityGraphSnapshot readSnapshot(String filename) throws IOException {
+        final File source = new File(filename);
+        if (!source.isFile()) {
+            throw new FileNotFoundException(filename);
         }
+        final long sourceLength = source.length();
+        final long sourceModified = source.lastModified();
+        final File snapshotFile = new File(filename + SNAPSHOT_SUFFIX);
 
-        final JSONArray edges = graphJSON.getJSONArray("edges");
-        for (int i = 0; i < edges.length(); i++) {
-            final JSONObject edge = edges.getJSONObject(i);
-            final JSONArray vertices = edge.getJSONArray("vertices");
-            final int sourceVertex = vertices.getInt(0);
-            final int targetVertex = vertices.getInt(1);
-            final int weight = edge.getInt("weight");
-            builder.addEdge(sourceVertex, targetVertex, weight);
+        if (useSnapshot && snapshotFile.isFile()) {
+            try {
+                CityGraphSnapshot snapshot = CityGraphSnapshot.map(snapshotFile, sourceLength, sourceModified);
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                logger.log(Logger.WARNING, "Cannot read city graph snapshot: " + e.getMessage());
+            }
         }
 
-        SimpleWeightedGraph<Integer, WeightedEdge> simpleWeightedGraph = builder.build();
-
+        CityGraphSnapshot.Builder builder = new CityGraphSnapshot.Builder();
+        try (Reader reader = new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8)) {
+            new CityGraphReader(reader, builder).read();
+        }
+        CityGraphSnapshot snapshot = builder.build();
 
-        return simpleWeightedGraph;
+        if (useSnapshot) {
+            try {
+                snapshot.write(snapshotFile, sourceLength, sourceModified);
+            } catch (IOException e) {
+                logger.log(Logger.WARNING, "Cannot write city graph snapshot: " + e.getMessage());
+            }
+        }
+        return snapshot;
     }
 }
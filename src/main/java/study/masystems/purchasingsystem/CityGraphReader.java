@@ -0,0 +1,305 @@
+package study.masystems.purchasingsystem;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader of the city graph JSON document:
+ * <pre>{"vertices_count": N, "edges": [{"vertices": [u, v], "weight": w}, ...]}</pre>
+ * Edges are passed to the handler one by one, the document is never kept in memory.
+ * Unknown fields are skipped.
+ */
+public class CityGraphReader {
+    public interface Handler {
+        void verticesCount(int count);
+
+        void edge(int source, int target, double weight);
+    }
+
+    private final Reader reader;
+    private final Handler handler;
+    private final char[] buffer = new char[64 * 1024];
+    private final StringBuilder token = new StringBuilder();
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;
+
+    public CityGraphReader(Reader reader, Handler handler) {
+        this.reader = reader;
+        this.handler = handler;
+    }
+
+    public void read() throws IOException {
+        expect('{');
+        if (skipWhitespace() == '}') {
+            next();
+            return;
+        }
+        do {
+            final String key = readString();
+            expect(':');
+            switch (key) {
+                case "vertices_count":
+                    handler.verticesCount((int) readNumber());
+                    break;
+                case "edges":
+                    readEdges();
+                    break;
+                default:
+                    skipValue();
+            }
+        } while (nextSeparator('}'));
+    }
+
+    private void readEdges() throws IOException {
+        expect('[');
+        if (skipWhitespace() == ']') {
+            next();
+            return;
+        }
+        do {
+            readEdge();
+        } while (nextSeparator(']'));
+    }
+
+    private void readEdge() throws IOException {
+        int source = 0;
+        int target = 0;
+        double weight = 0;
+        boolean hasVertices = false;
+        boolean hasWeight = false;
+
+        expect('{');
+        if (skipWhitespace() == '}') {
+            throw error("Edge without vertices");
+        }
+        do {
+            final String key = readString();
+            expect(':');
+            switch (key) {
+                case "vertices":
+                    expect('[');
+                    source = (int) readNumber();
+                    expect(',');
+                    target = (int) readNumber();
+                    expect(']');
+                    hasVertices = true;
+                    break;
+                case "weight":
+                    weight = readNumber();
+                    hasWeight = true;
+                    break;
+                default:
+                    skipValue();
+            }
+        } while (nextSeparator('}'));
+
+        if (!hasVertices || !hasWeight) {
+            throw error("Edge without vertices or weight");
+        }
+        handler.edge(source, target, weight);
+    }
+
+    /**
+     * @return <tt>true</tt> after comma, <tt>false</tt> after closing bracket.
+     */
+    private boolean nextSeparator(char close) throws IOException {
+        final int c = skipWhitespace();
+        next();
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private double readNumber() throws IOException {
+        int c = skipWhitespace();
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            next();
+            c = peek();
+        }
+        // Fast path for integers, other numbers are parsed from token.
+        long value = 0;
+        int digits = 0;
+        while (c >= '0' && c <= '9' && digits < 18) {
+            value = value * 10 + (c - '0');
+            digits++;
+            next();
+            c = peek();
+        }
+        if (digits > 0 && !isNumberPart(c)) {
+            return negative ? -value : value;
+        }
+
+        token.setLength(0);
+        if (negative) {
+            token.append('-');
+        }
+        if (digits > 0) {
+            token.append(value);
+        }
+        while (isNumberPart(c)) {
+            token.append((char) c);
+            next();
+            c = peek();
+        }
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw error("Malformed number " + token);
+        }
+    }
+
+    private static boolean isNumberPart(int c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        token.setLength(0);
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return token.toString();
+            }
+            if (c == '\\') {
+                c = next();
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            final int digit = Character.digit(next(), 16);
+                            if (digit < 0) {
+                                throw error("Malformed unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        c = code;
+                        break;
+                    default:
+                        // '"', '\\' and '/' stand for themselves.
+                        break;
+                }
+            }
+            if (c < 0) {
+                throw error("Unterminated string");
+            }
+            token.append((char) c);
+        }
+    }
+
+    private void skipValue() throws IOException {
+        final int c = skipWhitespace();
+        switch (c) {
+            case '"':
+                readString();
+                break;
+            case '{':
+                next();
+                if (skipWhitespace() == '}') {
+                    next();
+                    break;
+                }
+                do {
+                    readString();
+                    expect(':');
+                    skipValue();
+                } while (nextSeparator('}'));
+                break;
+            case '[':
+                next();
+                if (skipWhitespace() == ']') {
+                    next();
+                    break;
+                }
+                do {
+                    skipValue();
+                } while (nextSeparator(']'));
+                break;
+            case 't':
+                expectWord("true");
+                break;
+            case 'f':
+                expectWord("false");
+                break;
+            case 'n':
+                expectWord("null");
+                break;
+            default:
+                readNumber();
+        }
+    }
+
+    private void expectWord(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (next() != word.charAt(i)) {
+                throw error("Expected " + word);
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (skipWhitespace() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        next();
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            next();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int next() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        offset++;
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        final int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private IOException error(String message) {
+        return new IOException(String.format("Malformed city graph at character %d: %s.", offset, message));
+    }
+}
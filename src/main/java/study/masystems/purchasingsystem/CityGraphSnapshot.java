@@ -0,0 +1,220 @@
+package study.masystems.purchasingsystem;
+
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.jgrapht.graph.builder.UndirectedWeightedGraphBuilderBase;
+import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * City graph in compressed sparse row form. Vertices are numbered from 1 to verticesCount,
+ * each undirected edge is stored in adjacency lists of both vertices.
+ * <p>
+ * Snapshot file layout (little endian): header, offsets[verticesCount + 1], targets[2 * edgesCount],
+ * weights[2 * edgesCount]. Header keeps length and modification time of the source JSON file,
+ * snapshot of another version of the source is stale.
+ */
+public class CityGraphSnapshot {
+    private static final int MAGIC = 0x31525343; // "CSR1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final int verticesCount;
+    private final int edgesCount;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final DoubleBuffer weights;
+
+    private CityGraphSnapshot(int verticesCount, int edgesCount, IntBuffer offsets, IntBuffer targets, DoubleBuffer weights) {
+        this.verticesCount = verticesCount;
+        this.edgesCount = edgesCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    public int getVerticesCount() {
+        return verticesCount;
+    }
+
+    public int getEdgesCount() {
+        return edgesCount;
+    }
+
+    /**
+     * Build the graph. Duplicate edges and loops are dropped as in the JSON graph.
+     */
+    public SimpleWeightedGraph<Integer, WeightedEdge> toGraph() {
+        final UndirectedWeightedGraphBuilderBase<
+                Integer,
+                WeightedEdge,
+                ? extends SimpleWeightedGraph<Integer,
+                        WeightedEdge>,
+                ?> builder = SimpleWeightedGraph.builder(WeightedEdge.class);
+
+        for (int i = 0; i < verticesCount; i++) {
+            builder.addVertex(i + 1);
+        }
+        for (int vertex = 0; vertex < verticesCount; vertex++) {
+            for (int i = offsets.get(vertex); i < offsets.get(vertex + 1); i++) {
+                final int target = targets.get(i);
+                if (vertex < target) {
+                    builder.addEdge(vertex + 1, target + 1, weights.get(i));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Map snapshot file into memory.
+     *
+     * @return snapshot, or <tt>null</tt> if the file is stale or has another format.
+     */
+    public static CityGraphSnapshot map(File file, long sourceLength, long sourceModified) throws IOException {
+        try (RandomAccessFile snapshotFile = new RandomAccessFile(file, "r");
+             FileChannel channel = snapshotFile.getChannel()) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION
+                    || mapped.getLong() != sourceLength || mapped.getLong() != sourceModified) {
+                return null;
+            }
+            final int verticesCount = mapped.getInt();
+            final int edgesCount = mapped.getInt();
+            if (size != fileSize(verticesCount, edgesCount)) {
+                return null;
+            }
+
+            final int offsetsPosition = HEADER_SIZE;
+            final int targetsPosition = offsetsPosition + 4 * (verticesCount + 1);
+            final int weightsPosition = targetsPosition + 4 * 2 * edgesCount;
+            return new CityGraphSnapshot(verticesCount, edgesCount,
+                    slice(mapped, offsetsPosition).asIntBuffer(),
+                    slice(mapped, targetsPosition).asIntBuffer(),
+                    slice(mapped, weightsPosition).asDoubleBuffer());
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long fileSize(int verticesCount, int edgesCount) {
+        return HEADER_SIZE + 4L * (verticesCount + 1) + 12L * 2 * edgesCount;
+    }
+
+    /**
+     * Write snapshot file. The file is replaced atomically, readers never see partial snapshot.
+     */
+    public void write(File file, long sourceLength, long sourceModified) throws IOException {
+        final long size = fileSize(verticesCount, edgesCount);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("City graph is too large for snapshot.");
+        }
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile snapshotFile = new RandomAccessFile(temporary, "rw");
+             FileChannel channel = snapshotFile.getChannel()) {
+            snapshotFile.setLength(size);
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            mapped.putInt(MAGIC).putInt(VERSION).putLong(sourceLength).putLong(sourceModified);
+            mapped.putInt(verticesCount).putInt(edgesCount);
+            for (int i = 0; i <= verticesCount; i++) {
+                mapped.putInt(offsets.get(i));
+            }
+            for (int i = 0; i < 2 * edgesCount; i++) {
+                mapped.putInt(targets.get(i));
+            }
+            for (int i = 0; i < 2 * edgesCount; i++) {
+                mapped.putDouble(weights.get(i));
+            }
+            mapped.force();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Collect edges from {@link CityGraphReader} into primitive arrays and sort them into rows.
+     */
+    public static class Builder implements CityGraphReader.Handler {
+        private int verticesCount = -1;
+        private int edgesCount = 0;
+        private int[] sources = new int[1024];
+        private int[] edgeTargets = new int[1024];
+        private double[] edgeWeights = new double[1024];
+
+        @Override
+        public void verticesCount(int count) {
+            this.verticesCount = count;
+        }
+
+        @Override
+        public void edge(int source, int target, double weight) {
+            if (edgesCount == sources.length) {
+                final int capacity = sources.length * 2;
+                sources = Arrays.copyOf(sources, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+                edgeWeights = Arrays.copyOf(edgeWeights, capacity);
+            }
+            sources[edgesCount] = source;
+            edgeTargets[edgesCount] = target;
+            edgeWeights[edgesCount] = weight;
+            edgesCount++;
+        }
+
+        public CityGraphSnapshot build() throws IOException {
+            if (verticesCount < 0) {
+                throw new IOException("Malformed city graph: vertices_count not found.");
+            }
+            final int[] offsets = new int[verticesCount + 1];
+            for (int i = 0; i < edgesCount; i++) {
+                checkVertex(sources[i]);
+                checkVertex(edgeTargets[i]);
+                offsets[sources[i]]++;
+                offsets[edgeTargets[i]]++;
+            }
+            // Vertex v has row v - 1, offsets[v] holds its degree here.
+            for (int vertex = 1; vertex <= verticesCount; vertex++) {
+                offsets[vertex] += offsets[vertex - 1];
+            }
+
+            final int[] cursors = Arrays.copyOf(offsets, verticesCount);
+            final int[] targets = new int[2 * edgesCount];
+            final double[] weights = new double[2 * edgesCount];
+            for (int i = 0; i < edgesCount; i++) {
+                final int source = sources[i] - 1;
+                final int target = edgeTargets[i] - 1;
+                targets[cursors[source]] = target;
+                weights[cursors[source]++] = edgeWeights[i];
+                targets[cursors[target]] = source;
+                weights[cursors[target]++] = edgeWeights[i];
+            }
+            return new CityGraphSnapshot(verticesCount, edgesCount,
+                    IntBuffer.wrap(offsets), IntBuffer.wrap(targets), DoubleBuffer.wrap(weights));
+        }
+
+        private void checkVertex(int vertex) throws IOException {
+            if (vertex < 1 || vertex > verticesCount) {
+                throw new IOException("Malformed city graph: vertex " + vertex + " not found.");
+            }
+        }
+    }
+}
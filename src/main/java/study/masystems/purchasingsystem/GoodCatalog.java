@@ -0,0 +1,80 @@
+package study.masystems.purchasingsystem;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of goods. Interns good names to dense integer identifiers,
+ * so that agents keep their goods tables in arrays indexed by identifier.
+ * Names are still used in messages, identifiers never leave the process.
+ */
+public class GoodCatalog {
+    public static final int UNKNOWN = -1;
+
+    private static final ConcurrentHashMap<String, Integer> identifiers = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static volatile int size = 0;
+
+    private GoodCatalog() {
+    }
+
+    /**
+     * Register all goods of the catalog, usually at bootstrap.
+     */
+    public static void registerAll(Collection<String> goods) {
+        goods.forEach(GoodCatalog::intern);
+    }
+
+    /**
+     * @return identifier of the good, new identifier is assigned to unknown good.
+     */
+    public static int intern(String name) {
+        final Integer id = identifiers.get(name);
+        if (id != null) {
+            return id;
+        }
+        return register(name);
+    }
+
+    private static synchronized int register(String name) {
+        final Integer id = identifiers.get(name);
+        if (id != null) {
+            return id;
+        }
+        final int newId = size;
+        String[] currentNames = names;
+        if (newId == currentNames.length) {
+            currentNames = Arrays.copyOf(currentNames, currentNames.length * 2);
+        }
+        currentNames[newId] = name;
+        names = currentNames;
+        size = newId + 1;
+        identifiers.put(name, newId);
+        return newId;
+    }
+
+    /**
+     * Look up good without registration. Use it for names received in messages.
+     *
+     * @return identifier of the good or <tt>UNKNOWN</tt>.
+     */
+    public static int idOf(String name) {
+        final Integer id = identifiers.get(name);
+        return id == null ? UNKNOWN : id;
+    }
+
+    public static String nameOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Good " + id + " not found.");
+        }
+        return names[id];
+    }
+
+    /**
+     * @return number of registered goods, all identifiers are less than size.
+     */
+    public static int size() {
+        return size;
+    }
+}
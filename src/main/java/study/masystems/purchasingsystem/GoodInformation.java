@@ -4,9 +4,15 @@ package study.masystems.purchasingsystem;
  *
  */
 public class GoodInformation {
+    /**
+     * Stock of goods without a limit.
+     */
+    public static final int UNLIMITED_STOCK = Integer.MAX_VALUE;
+
     private Double cost = 0.0;
     private int minimalQuantity = 0;
     private int deliveryPeriodDays = 0;
+    private int stock = UNLIMITED_STOCK;
 
     public GoodInformation() {
     }
@@ -17,6 +23,11 @@ public class GoodInformation {
         this.deliveryPeriodDays = deliveryPeriodDays;
     }
 
+    public GoodInformation(Double cost, int minimalQuantity, int deliveryPeriodDays, int stock) {
+        this(cost, minimalQuantity, deliveryPeriodDays);
+        this.stock = stock;
+    }
+
     public Double getCost() {
         return cost;
     }
@@ -41,11 +52,20 @@ public class GoodInformation {
         this.deliveryPeriodDays = deliveryPeriodDays;
     }
 
+    public int getStock() {
+        return stock;
+    }
+
+    public void setStock(int stock) {
+        this.stock = stock;
+    }
+
     @Override
     public String toString() {
         return "GoodInformation{" +
                 "minimalQuantity=" + minimalQuantity +
                 ", cost=" + cost +
+                ", stock=" + stock +
                 '}';
     }
 }
@@ -2,37 +2,46 @@ package study.masystems.purchasingsystem.agents;
 
 
 import flexjson.JSONDeserializer;
-import flexjson.JSONSerializer;
 import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.*;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
-import jade.lang.acl.UnreadableException;
+import jade.proto.SubscriptionInitiator;
 import jade.util.Logger;
 import jade.util.leap.Iterator;
 import org.jgrapht.GraphPath;
-import org.jgrapht.alg.FloydWarshallShortestPaths;
 import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodCatalog;
 import study.masystems.purchasingsystem.GoodNeed;
 import study.masystems.purchasingsystem.PurchaseInfo;
+import study.masystems.purchasingsystem.codec.ContentCodec;
+import study.masystems.purchasingsystem.codec.ContentCodecs;
 import study.masystems.purchasingsystem.jgrapht.BuyerGraphPath;
+import study.masystems.purchasingsystem.jgrapht.DeliveryPlan;
+import study.masystems.purchasingsystem.jgrapht.DistanceOracle;
 import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.journal.PurchaseLog;
+import study.masystems.purchasingsystem.journal.PurchaseRecord;
+import study.masystems.purchasingsystem.metrics.Metrics;
+import study.masystems.purchasingsystem.metrics.Phase;
 import study.masystems.purchasingsystem.utils.DataGenerator;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 /**
  * Purchase participant, that wants to buy some goods.
  */
-public class Buyer extends Agent {
+public class Buyer extends PurchasingAgent {
     private long WAIT_FOR_CUSTOMER_REPLIES_PERIOD = 5000;
     private long WAIT_FOR_CUSTOMERS_PERIOD = 5000;
     private long CHECK_NEEDS_PERIOD = 5000;
@@ -41,18 +50,23 @@ public class Buyer extends Agent {
     private long DELIVERY_PERIOD = 5000;
     private int MAX_SEARCH_CUSTOMER_ITERATION = 3;
     private int WAIT_FOR_DELIVERY_FACTOR = 1000;
-    private JSONDeserializer<PurchaseInfo> jsonDeserializer = new JSONDeserializer<>();
-    private JSONDeserializer<Set<AID>> agentsDeserializer = new JSONDeserializer<>();
+    // Costs of joining a purchase, in money units, for the choice of purchases.
+    private double PURCHASE_OVERHEAD_COST = 500;
+    private double DETOUR_UNIT_COST = 50;
     private JSONDeserializer<Integer> positionDeserialize = new JSONDeserializer<>();
-    private JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
 
     private Map<String, GoodNeed> goodNeeds;
     private double money;
-    private FloydWarshallShortestPaths<Integer, WeightedEdge> cityPaths;
+    private DistanceOracle cityPaths;
     private BuyerGraphPath<Integer, WeightedEdge> path;
     private HashMap<AID, String> customerAgents = new HashMap<>();
-    private ProposalTable proposalTable = new ProposalTable();
+    private CustomerDirectory customerDirectory = new CustomerDirectory();
+    // Customer subscriptions by region DF.
+    private Map<AID, ACLMessage> customerSubscriptions = new LinkedHashMap<>();
+    private ProposalTable proposalTable;
     private Set<String> restGoods = new HashSet<>();
+    // Durable purchase events: joined purchases and received goods.
+    private PurchaseLog purchaseLog;
 
     private boolean isActive = true;
 
@@ -68,6 +82,8 @@ public class Buyer extends Agent {
 
     @Override
     protected void setup() {
+        awaitStart();
+
         //Check whether an agent was read from file or created manually
         //If read, then parse args.
         Object[] args = getArguments();
@@ -76,7 +92,7 @@ public class Buyer extends Agent {
             money = DataGenerator.getRandomMoneyAmount();
         } else {
             try {
-                cityPaths = (FloydWarshallShortestPaths<Integer, WeightedEdge>) args[0];
+                cityPaths = (DistanceOracle) args[0];
                 path = new BuyerGraphPath<>((GraphPath<Integer, WeightedEdge>) args[1]);
                 goodNeeds = (Map<String, GoodNeed>) args[2];
                 money = (Integer) args[3];
@@ -87,7 +103,29 @@ public class Buyer extends Agent {
             }
         }
 
+        proposalTable = new ProposalTable(getAID(), goodNeeds.keySet());
         restGoods.addAll(goodNeeds.keySet());
+        restorePurchases();
+
+        // Keep local directory of open purchases up to date.
+        DFAgentDescription template = new DFAgentDescription();
+        ServiceDescription templateSD = new ServiceDescription();
+        templateSD.setType("customer");
+        template.addServices(templateSD);
+
+        for (AID df : getSearchedDFs()) {
+            final ACLMessage customerSubscription = DFService.createSubscriptionMessage(this, df, template, null);
+            customerSubscriptions.put(df, customerSubscription);
+            addBehaviour(new SubscriptionInitiator(this, customerSubscription) {
+                protected void handleInform(ACLMessage inform) {
+                    try {
+                        customerDirectory.update(DFService.decodeNotification(inform.getContent()));
+                    } catch (FIPAException fe) {
+                        logger.log(Level.SEVERE, fe.toString());
+                    }
+                }
+            });
+        }
 
         addBehaviour(new BuyerBehaviour(this, WAIT_FOR_CUSTOMERS_PERIOD, WAIT_FOR_CUSTOMER_REPLIES_PERIOD, restGoods));
 
@@ -102,10 +140,61 @@ public class Buyer extends Agent {
         });
     }
 
+    /**
+     * Remove received goods and wait for confirmation of purchases joined before the restart of the agent.
+     */
+    private void restorePurchases() {
+        purchaseLog = PurchaseLog.open(getLocalName());
+        final Map<String, Demand> demands = new LinkedHashMap<>();
+        final Map<String, AID> customers = new HashMap<>();
+        for (PurchaseRecord record : purchaseLog.getRecovered()) {
+            switch (record.getType()) {
+                case GOODS_RECEIVED:
+                    goodNeeds.remove(record.getGood());
+                    restGoods.remove(record.getGood());
+                    break;
+                case DEMAND_ADDED:
+                    demands.computeIfAbsent(record.getConversationId(), Demand::new)
+                            .put(record.getGood(), record.getCount());
+                    customers.put(record.getConversationId(), new AID(record.getPeer(), AID.ISGUID));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (demands.isEmpty()) {
+            return;
+        }
+        final long deadline = System.currentTimeMillis() + ACTIVITY_PERIOD;
+        final ParallelBehaviour joinThePurchases = new JoinThePurchasesBehaviour(this, ParallelBehaviour.WHEN_ALL);
+        demands.forEach((purchaseName, demand) -> {
+            restGoods.removeAll(demand.getOrders().keySet());
+            joinThePurchases.addSubBehaviour(new ParticipateInPurchase(customers.get(purchaseName), demand, deadline));
+        });
+        final SequentialBehaviour purchase = new SequentialBehaviour(this);
+        purchase.addSubBehaviour(joinThePurchases);
+        purchase.addSubBehaviour(new CheckNeeds());
+        addBehaviour(purchase);
+        logger.log(Level.INFO, String.format("Buyer %s restored %d purchases", getLocalName(), demands.size()));
+    }
+
     protected void takeDown() {
+        // Unsettled purchases are restored on the next start.
+        purchaseLog.close();
+        for (Map.Entry<AID, ACLMessage> subscription : customerSubscriptions.entrySet()) {
+            sendMessage(DFService.createCancelMessage(this, subscription.getKey(), subscription.getValue()));
+        }
         logger.log(Level.INFO, String.format("Buyer-agent %s terminating.", getLocalName()));
     }
 
+    /**
+     * Delete the buyer, which has no purchases in progress. Its purchase log is deleted, there is nothing to restore.
+     */
+    private void finish() {
+        purchaseLog.delete();
+        doDelete();
+    }
+
     private class MakeAnotherAttempt extends WakerBehaviour {
 
         public MakeAnotherAttempt(Agent a, long timeout) {
@@ -126,7 +215,7 @@ public class Buyer extends Agent {
             } else {
                 if (JoinThePurchasesBehaviour.getInstanceCount() == 0) {
                     // We purchase all that we can.
-                    doDelete();
+                    finish();
                 } else {
                     addBehaviour(new MakeAnotherAttempt(myAgent, CHECK_NEEDS_PERIOD));
                 }
@@ -138,7 +227,7 @@ public class Buyer extends Agent {
     private class BuyerBehaviour extends SequentialBehaviour {
         public BuyerBehaviour(Agent a, long waitForCustomers, long waitForCustomerReplies, Set<String> goods) {
             super(a);
-            this.addSubBehaviour(new SearchCustomers(myAgent, waitForCustomers));
+            this.addSubBehaviour(new SearchCustomers(myAgent, waitForCustomers, goods));
             this.addSubBehaviour(new ChooseCustomer(waitForCustomerReplies, goods));
             this.addSubBehaviour(new AcceptProposals());
         }
@@ -161,90 +250,98 @@ public class Buyer extends Agent {
         }
     }
 
-    private class SearchCustomers extends WakerBehaviour {
+    /**
+     * Wait until the customer directory has open purchases with needed goods.
+     */
+    private class SearchCustomers extends Behaviour {
+        private final long timeout;
+        private final Set<String> goods;
+        private long endTime = 0;
+        private boolean finished = false;
         private int status = SUCCESS;
         private int count = 0;
 
-        public SearchCustomers(Agent a, long timeout) {
-            super(a, timeout);
+        public SearchCustomers(Agent a, long timeout, Set<String> goods) {
+            super(a);
+            this.timeout = timeout;
+            this.goods = goods;
         }
 
         @Override
-        public void reset(long timeout) {
-            super.reset(timeout);
-            status = SUCCESS;
+        public void onStart() {
+            super.onStart();
+            endTime = System.currentTimeMillis() + timeout;
+            wakeUpAt(this, endTime);
         }
 
         @Override
         public void reset() {
             super.reset();
+            finished = false;
             status = SUCCESS;
         }
 
         @Override
-        protected void onWake() {
-            super.onWake();
-            count++;
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription templateSD = new ServiceDescription();
-            templateSD.setType("customer");
-            template.addServices(templateSD);
-
-            try {
-                DFAgentDescription[] fe = DFService.search(myAgent, template);
-                logger.log(Level.INFO, String.format("Buyer %s found the following seller agents:", myAgent.getLocalName()));
-
-                for (DFAgentDescription aFe : fe) {
-                    String purchaseName;
-
-                    Iterator allServices = aFe.getAllServices();
-                    if (!allServices.hasNext()) {
-                        logger.log(Logger.WARNING, "Cannot find services by " + aFe.getName());
-                    }
-
-                    purchaseName = ((ServiceDescription) allServices.next()).getName();
-
-                    customerAgents.put(aFe.getName(), purchaseName);
-                    logger.log(Level.INFO, aFe.getName() + " purchase " + purchaseName);
-                }
+        public void action() {
+            Map<AID, String> found = customerDirectory.find(goods);
+            if (!found.isEmpty()) {
+                logger.log(Level.INFO, String.format("Buyer %s found the following customer agents:", myAgent.getLocalName()));
+                found.forEach((customer, purchaseName) -> {
+                    customerAgents.put(customer, purchaseName);
+                    logger.log(Level.INFO, customer + " purchase " + purchaseName);
+                });
+                finished = true;
+                return;
+            }
 
-                if (fe.length == 0) {
-                    status = FAIL;
-                }
-                if (count >= MAX_SEARCH_CUSTOMER_ITERATION) {
-                    status = ABORT;
-                }
-            } catch (FIPAException var5) {
-                logger.log(Level.SEVERE, var5.toString());
-                status = ABORT;
+            if (endTime > System.currentTimeMillis()) {
+                // Directory notifications and the deadline wake the behaviour up.
+                block();
+                return;
             }
+            count++;
+            status = count >= MAX_SEARCH_CUSTOMER_ITERATION ? ABORT : FAIL;
+            finished = true;
+        }
+
+        @Override
+        public boolean done() {
+            return finished;
         }
 
         @Override
         public int onEnd() {
+            cancelWakeUp(this);
             return status;
         }
     }
 
     private class ChooseCustomer extends Behaviour {
-        private MessageTemplate mt;
+        private Mailbox mailbox;
         private int step = 0;
         private int repliesCnt = 0;
         private long period = 0;
         private long endTime = 0;
-        private String goodNeedsJSON;
+        private long startNanos;
+        private long sentNanos;
+        private final Set<AID> replied = new HashSet<>();
+        private final ContentCodec codec = ContentCodecs.getDefault();
+        private byte[] encodedGoodNeeds;
 
         public ChooseCustomer(long period, Set<String> goods) {
             this.period = period;
             Map<String, GoodNeed> currentNeeds = new HashMap<>();
             goods.forEach(good -> currentNeeds.put(good, goodNeeds.get(good)));
-            this.goodNeedsJSON = jsonSerializer.serialize(currentNeeds);
+            this.encodedGoodNeeds = codec.encodeGoodNeeds(currentNeeds);
         }
 
         @Override
         public void onStart() {
             super.onStart();
-            endTime = System.currentTimeMillis() + period;
+            endTime = System.currentTimeMillis()
+                    + getTimeoutPolicy().getTimeout(Phase.BUYER_CFP, customerAgents.keySet(), period);
+            wakeUpAt(this, endTime);
+            startNanos = System.nanoTime();
         }
 
         @Override
@@ -252,6 +349,7 @@ public class Buyer extends Agent {
             super.reset();
             repliesCnt = 0;
             step = 0;
+            replied.clear();
         }
 
         @Override
@@ -264,24 +362,37 @@ public class Buyer extends Agent {
                     //TODO: check purchase date and need time
                     customerAgents.keySet().forEach(cfp::addReceiver);
 
-                    cfp.setContent(goodNeedsJSON);
+                    codec.write(cfp, encodedGoodNeeds);
                     String convId = "participation" + hashCode() + "_" + System.currentTimeMillis();
                     cfp.setConversationId(convId);
                     cfp.setReplyWith("cfp" + "_" + System.currentTimeMillis());
 
-                    myAgent.send(cfp);
-                    mt = MessageTemplate.and(MessageTemplate.MatchInReplyTo(cfp.getReplyWith()),
-                            MessageTemplate.MatchConversationId(convId));
+                    proposalTable.clear();
+                    sendMessage(cfp);
+                    sentNanos = System.nanoTime();
+                    mailbox = openMailbox(this, convId, MessageTemplate.MatchInReplyTo(cfp.getReplyWith()));
                     step = 1;
                     break;
                 case 1:
-                    reply = myAgent.receive(mt);
+                    reply = mailbox.receive();
                     if (reply != null) {
+                        if (replied.add(reply.getSender())) {
+                            getTimeoutPolicy().replied(Phase.BUYER_CFP, reply.getSender(), sentNanos);
+                        }
                         if (reply.getPerformative() == ACLMessage.PROPOSE) {
                             //TODO: real prices check
-                            PurchaseInfo purchaseInfo = jsonDeserializer.deserialize(reply.getContent(), PurchaseInfo.class);
+                            final ContentCodec replyCodec = ContentCodecs.forMessage(reply);
+                            PurchaseInfo purchaseInfo = replyCodec.decodePurchaseInfo(replyCodec.read(reply));
                             Map<String, Double> prices = purchaseInfo.getGoodsPrice();
                             final Map<String, Integer> goodsRest = purchaseInfo.getGoodsRest();
+                            final String position = reply.getUserDefinedParameter("position");
+                            if (position != null && cityPaths != null && path != null) {
+                                final Integer customerPosition = positionDeserialize.deserialize(position);
+                                if (customerPosition != null && cityPaths.containsVertex(customerPosition)) {
+                                    proposalTable.setDetour(reply.getSender(), cityPaths.getDetour(
+                                            path.getStartVertex(), path.getEndVertex(), customerPosition));
+                                }
+                            }
 
                             for (Map.Entry<String, Double> entry : prices.entrySet()) {
                                 String name = entry.getKey();
@@ -289,8 +400,8 @@ public class Buyer extends Agent {
                                     proposalTable.addCustomerProposal(reply.getSender(), name, entry.getValue(), goodsRest.get(name));
                                 }
                             }
-                            repliesCnt++;
                         }
+                        repliesCnt++;
                     } else {
                         this.block();
                     }
@@ -302,6 +413,18 @@ public class Buyer extends Agent {
         public boolean done() {
             return (this.repliesCnt >= customerAgents.size()) || (endTime <= System.currentTimeMillis());
         }
+
+        @Override
+        public int onEnd() {
+            cancelWakeUp(this);
+            closeMailbox(mailbox);
+            mailbox = null;
+            Metrics.record(Phase.BUYER_CFP, startNanos);
+            if (repliesCnt < customerAgents.size()) {
+                getTimeoutPolicy().timedOut(Phase.BUYER_CFP, customerAgents.keySet(), replied);
+            }
+            return super.onEnd();
+        }
     }
 
     private class AcceptProposals extends Behaviour {
@@ -311,12 +434,10 @@ public class Buyer extends Agent {
             // Accept chosen proposals.
             logger.log(Level.INFO, String.format("%s accept proposal.", getLocalName()));
             Map<AID, Demand> purchases = new HashMap<>();
+            Map<String, Integer> quantities = new HashMap<>();
+            restGoods.forEach(good -> quantities.put(good, goodNeeds.get(good).getQuantity()));
 
-            for (Map.Entry<String, ProposalTable.CustomerProposal> entry : proposalTable.getEntrySet()) {
-                String good = entry.getKey();
-                ProposalTable.CustomerProposal customerProposal = entry.getValue();
-                AID customer = customerProposal.getCustomer();
-
+            proposalTable.choosePurchases(quantities, PURCHASE_OVERHEAD_COST, DETOUR_UNIT_COST).forEach((good, customer) -> {
                 Demand demand = purchases.get(customer);
                 if (demand == null) {
                     demand = new Demand(customerAgents.get(customer));
@@ -328,7 +449,7 @@ public class Buyer extends Agent {
                     demand.put(good, goodNeed.getQuantity());
                 }
                 restGoods.removeAll(demand.getOrders().keySet());
-            }
+            });
             customerAgents.clear();
 
             // Add behaviour for each purchase.
@@ -386,13 +507,25 @@ public class Buyer extends Agent {
             super();
             this.demand = demand;
             this.addSubBehaviour(new JoinThePurchase(customer, demand));
-            MessageTemplate mt = MessageTemplate.and(
-                    MessageTemplate.MatchConversationId(demand.getPurchaseName()),
-                    MessageTemplate.MatchSender(customer));
-            this.addSubBehaviour(new WaitForConfirmation(mt, this));
+            this.addSubBehaviour(new WaitForConfirmation(customer, demand.getPurchaseName(), this));
             //TODO: Add behaviours for delivery.
         }
 
+        /**
+         * Participation in the purchase joined before the restart, the confirmation is awaited until the deadline.
+         */
+        public ParticipateInPurchase(AID customer, Demand demand, long deadline) {
+            super();
+            this.demand = demand;
+            this.addSubBehaviour(new WaitForConfirmation(customer, demand.getPurchaseName(), this, deadline));
+        }
+
+        @Override
+        public int onEnd() {
+            purchaseLog.purchaseSettled(demand.getPurchaseName());
+            return super.onEnd();
+        }
+
         @Override
         protected void scheduleNext(boolean currentDone, int currentResult) {
             super.scheduleNext(currentDone, currentResult);
@@ -415,7 +548,7 @@ public class Buyer extends Agent {
         private final AID customer;
         private final Demand demand;
         private int step = 0;
-        private MessageTemplate mt;
+        private Mailbox mailbox;
         private boolean replyReceived = false;
         private long period = 0;
         private long endTime = 0;
@@ -448,19 +581,26 @@ public class Buyer extends Agent {
                 case STEP_SEND:
                     ACLMessage accept = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
                     accept.setConversationId(demand.getPurchaseName());
-                    accept.setContent(jsonSerializer.serialize(demand));
+                    final ContentCodec codec = ContentCodecs.getDefault();
+                    codec.write(accept, codec.encodeDemand(demand));
                     accept.addReceiver(customer);
-                    myAgent.send(accept);
+                    if (path != null) {
+                        // The customer plans delivery over routes of buyers.
+                        accept.addUserDefinedParameter("path", path.serializePath());
+                    }
+                    sendMessage(accept);
 
-                    mt = MessageTemplate.MatchConversationId(accept.getConversationId());
+                    mailbox = openMailbox(this, accept.getConversationId(), null);
                     step++;
                     break;
                 case STEP_RECEIVE:
-                    ACLMessage message = receive(mt);
+                    ACLMessage message = mailbox.receive();
                     if (message != null) {
                         final int performative = message.getPerformative();
                         switch (performative) {
                             case ACLMessage.AGREE:
+                                demand.getOrders().forEach((good, count) -> purchaseLog.demandAdded(
+                                        demand.getPurchaseName(), customer.getName(), good, count));
                                 break;
                             default:
                                 status = FAIL;
@@ -481,19 +621,41 @@ public class Buyer extends Agent {
 
         @Override
         public int onEnd() {
+            closeMailbox(mailbox);
+            mailbox = null;
             return status;
         }
     }
 
     private class WaitForConfirmation extends Behaviour {
-        private final MessageTemplate mt;
+        private final AID customer;
+        private final String purchaseName;
         private final ParticipateInPurchase participateInPurchase;
+        private Mailbox mailbox;
         private boolean purchaseCompleted = false;
         private int status = SUCCESS;
+        // Time to give up waiting, 0 to wait without limit.
+        private final long deadline;
+
+        public WaitForConfirmation(AID customer, String purchaseName, ParticipateInPurchase participateInPurchase) {
+            this(customer, purchaseName, participateInPurchase, 0);
+        }
 
-        public WaitForConfirmation(MessageTemplate mt, ParticipateInPurchase participateInPurchase) {
-            this.mt = mt;
+        public WaitForConfirmation(AID customer, String purchaseName, ParticipateInPurchase participateInPurchase,
+                                   long deadline) {
+            this.customer = customer;
+            this.purchaseName = purchaseName;
             this.participateInPurchase = participateInPurchase;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, purchaseName, MessageTemplate.MatchSender(customer));
+            if (deadline > 0) {
+                wakeUpAt(this, deadline);
+            }
         }
 
         @Override
@@ -505,7 +667,7 @@ public class Buyer extends Agent {
 
         @Override
         public void action() {
-            ACLMessage message = receive(mt);
+            ACLMessage message = mailbox.receive();
             if (message != null) {
                 final int performative = message.getPerformative();
                 switch (performative) {
@@ -516,8 +678,16 @@ public class Buyer extends Agent {
                         final Iterator allReceiver = message.getAllReceiver();
                         allReceiver.forEachRemaining(buyer -> buyers.add((AID) buyer));
                         final Integer position = positionDeserialize.deserialize(message.getUserDefinedParameter("position"));
-                        participateInPurchase.addSubBehaviour(
-                                new DeliveryBehaviour(myAgent, message.getSender(), buyers, position, message.getConversationId()));
+                        final String serializedPlan = message.getUserDefinedParameter("plan");
+                        final DeliveryPlan<AID> plan = serializedPlan == null ? null
+                                : DeliveryPlan.deserialize(serializedPlan, name -> new AID(name, AID.ISGUID));
+                        if (plan != null && plan.contains(getAID())) {
+                            participateInPurchase.addSubBehaviour(new DeliveryBehaviour(myAgent, message.getSender(),
+                                    buyers, plan, message.getConversationId()));
+                        } else {
+                            participateInPurchase.addSubBehaviour(new DeliveryBehaviour(myAgent, message.getSender(),
+                                    buyers, position, message.getConversationId()));
+                        }
                         break;
                     case ACLMessage.CANCEL:
                         status = FAIL;
@@ -531,11 +701,21 @@ public class Buyer extends Agent {
 
         @Override
         public boolean done() {
+            if (!purchaseCompleted && deadline > 0 && deadline <= System.currentTimeMillis()) {
+                // The confirmation was sent while the agent was down.
+                status = FAIL;
+                return true;
+            }
             return purchaseCompleted;
         }
 
         @Override
         public int onEnd() {
+            if (deadline > 0) {
+                cancelWakeUp(this);
+            }
+            closeMailbox(mailbox);
+            mailbox = null;
             return status;
         }
     }
@@ -546,11 +726,8 @@ public class Buyer extends Agent {
     private class CheckNeeds extends OneShotBehaviour {
         @Override
         public void action() {
-            if (goodNeeds.isEmpty()) {
-                doDelete();
-            }
-            if (!isActive && JoinThePurchasesBehaviour.getInstanceCount() == 0) {
-                doDelete();
+            if (goodNeeds.isEmpty() || (!isActive && JoinThePurchasesBehaviour.getInstanceCount() == 0)) {
+                finish();
             }
         }
     }
@@ -578,6 +755,28 @@ public class Buyer extends Agent {
             addSubBehaviour(new ConfigureDelivery(this, deliveryConfig));
         }
 
+        /**
+         * Delivery by the plan of the customer: carriers pick up goods and hand them over to their stops,
+         * without negotiation between buyers.
+         */
+        public DeliveryBehaviour(Agent a, AID customer, Set<AID> buyers, DeliveryPlan<AID> plan, String baseConversationID) {
+            super(a);
+            buyers.remove(myAgent.getAID());
+
+            this.customer = customer;
+            this.otherBuyers = buyers;
+            this.deliveryConversationID = baseConversationID + "_delivery";
+
+            final AID carrier = plan.getCarrier(myAgent.getAID());
+            if (carrier.equals(myAgent.getAID())) {
+                plan.getStops(carrier).forEach(this::addDestinations);
+                addSubBehaviour(new InformCustomer(this));
+                addSubBehaviour(new ReceiveGoods(this, customer, true));
+            } else {
+                addSubBehaviour(new ReceiveGoods(this, carrier, true));
+            }
+        }
+
         public AID getCustomer() {
             return customer;
         }
@@ -675,7 +874,8 @@ public class Buyer extends Agent {
         final private DeliveryConfig deliveryConfig;
         final private double distance;
         private long endTime;
-        private MessageTemplate messageTemplate;
+        private long startNanos;
+        private Mailbox mailbox;
         private AID lastCandidate;
         private AID deliveryAgent;
         private Date replyByDate;
@@ -688,18 +888,17 @@ public class Buyer extends Agent {
             this.otherBuyers = deliveryBehaviour.getOtherBuyers();
             this.deliveryConfig = deliveryConfig;
 
-            final GraphPath<Integer, WeightedEdge> firstPart = cityPaths.getShortestPath(path.getStartVertex(), customerPosition);
-            final GraphPath<Integer, WeightedEdge> secondPart = cityPaths.getShortestPath(customerPosition, path.getEndVertex());
-            this.distance = firstPart.getWeight() + secondPart.getWeight() - path.getWeight();
-
-            messageTemplate = MessageTemplate.and(MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()),
-                    MessageTemplate.MatchContent("delivery"));
+            this.distance = cityPaths.getDistance(path.getStartVertex(), customerPosition)
+                    + cityPaths.getDistance(customerPosition, path.getEndVertex()) - path.getWeight();
         }
 
         @Override
         public void onStart() {
             super.onStart();
             endTime = System.currentTimeMillis() + calculateWaitingTime();
+            wakeUpAt(this, endTime);
+            mailbox = openMailbox(this, deliveryBehaviour.getDeliveryConversationID(), MessageTemplate.MatchContent("delivery"));
+            startNanos = System.nanoTime();
             step = 0;
             logger.log(Level.INFO, String.format("Delivery wait. %s, %d", getLocalName(), calculateWaitingTime()));
         }
@@ -710,7 +909,7 @@ public class Buyer extends Agent {
 
         @Override
         public void action() {
-            ACLMessage message = receive(messageTemplate);
+            ACLMessage message = mailbox.receive();
             if (message != null) {
                 final int performative = message.getPerformative();
                 switch (step) {
@@ -724,33 +923,15 @@ public class Buyer extends Agent {
                                 message.getUserDefinedParameter("path"));
 
                         // Check paths intersection.
-                        boolean isAccepted = false;
-                        final List<Integer> pathVertices = path.getVertices();
-                        for (Integer vertex : vertices) {
-                            if (pathVertices.contains(vertex)) {
-                                acceptProposal(message);
-                                isAccepted = true;
-                                step = 1;
-                                break;
-                            }
-                        }
-                        if (isAccepted) {
+                        if (path.intersects(vertices)) {
+                            acceptProposal(message);
+                            step = 1;
                             break;
                         }
 
                         // Estimate gain.
-                        double newWeight = Double.POSITIVE_INFINITY;
-                        final Integer startVertex = path.getStartVertex();
-                        final Integer endVertex = path.getEndVertex();
-
-                        for (Integer vertex : vertices) {
-                            final GraphPath<Integer, WeightedEdge> firstPart = cityPaths.getShortestPath(startVertex, vertex);
-                            final GraphPath<Integer, WeightedEdge> secondPart = cityPaths.getShortestPath(vertex, endVertex);
-                            final double currentWeight = firstPart.getWeight() + secondPart.getWeight();
-                            if (currentWeight < newWeight) {
-                                newWeight = currentWeight;
-                            }
-                        }
+                        final double newWeight = cityPaths.getShortestRouteVia(path.getStartVertex(),
+                                path.getEndVertex(), vertices);
 
                         final double weight = path.getWeight();
                         double gain = (weight - newWeight) / weight;
@@ -778,7 +959,7 @@ public class Buyer extends Agent {
                         break;
                 }
             } else {
-                block(1000);
+                block();
             }
         }
 
@@ -786,23 +967,26 @@ public class Buyer extends Agent {
             final ACLMessage reply = message.createReply();
             reply.setPerformative(ACLMessage.ACCEPT_PROPOSAL);
             reply.addReplyTo(myAgent.getAID());
-            send(reply);
+            sendMessage(reply);
             lastCandidate = message.getSender();
         }
 
         private void rejectProposal(ACLMessage message) {
             final ACLMessage reply = message.createReply();
             reply.setPerformative(ACLMessage.REJECT_PROPOSAL);
-            send(reply);
+            sendMessage(reply);
         }
 
         @Override
         public boolean done() {
-            return (System.currentTimeMillis() > endTime) || (deliveryAgent != null);
+            return (System.currentTimeMillis() >= endTime) || (deliveryAgent != null);
         }
 
         @Override
         public int onEnd() {
+            cancelWakeUp(this);
+            closeMailbox(mailbox);
+            mailbox = null;
             if (deliveryAgent == null) {
                 deliveryAgent = deliveryBehaviour.getCustomer();
                 ACLMessage message = new ACLMessage(ACLMessage.INFORM);
@@ -810,24 +994,44 @@ public class Buyer extends Agent {
                 long deliveryTime = System.currentTimeMillis() + DELIVERY_PERIOD + 1000;
                 message.setContent(String.valueOf(deliveryTime));
                 message.addReceiver(deliveryAgent);
-                send(message);
+                sendMessage(message);
                 replyByDate = new Date(deliveryTime);
             }
             deliveryConfig.setDeliveryAgent(deliveryAgent);
             deliveryConfig.setReplyByDate(replyByDate);
+            Metrics.record(Phase.DELIVERY_NEGOTIATION, startNanos);
             return super.onEnd();
         }
     }
 
+    /**
+     * Tell the customer the time to give goods to the carrier.
+     */
+    private class InformCustomer extends OneShotBehaviour {
+        private final DeliveryBehaviour deliveryBehaviour;
+
+        public InformCustomer(DeliveryBehaviour deliveryBehaviour) {
+            this.deliveryBehaviour = deliveryBehaviour;
+        }
+
+        @Override
+        public void action() {
+            ACLMessage message = new ACLMessage(ACLMessage.INFORM);
+            message.setConversationId(deliveryBehaviour.getDeliveryConversationID());
+            message.setContent(String.valueOf(System.currentTimeMillis() + DELIVERY_PERIOD));
+            message.addReceiver(deliveryBehaviour.getCustomer());
+            sendMessage(message);
+        }
+    }
+
     /**
      * Send proposal to other buyers. Wait for request from delivery agent.
      */
     private class PropagateProposal extends Behaviour {
         private final DeliveryBehaviour deliveryBehaviour;
-        private final MessageTemplate acceptMT;
-        private final MessageTemplate infoMT;
         private final long endTime;
         private final AID deliveryAgent;
+        private Mailbox mailbox;
 
         private int step = 0;
 
@@ -835,10 +1039,14 @@ public class Buyer extends Agent {
             this.deliveryBehaviour = deliveryBehaviour;
             this.endTime = endTime;
             this.deliveryAgent = deliveryAgent;
-            this.acceptMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL),
-                    MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()));
-            this.infoMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.INFORM),
-                    MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()));
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            wakeUpAt(this, endTime);
+            mailbox = openMailbox(this, deliveryBehaviour.getDeliveryConversationID(),
+                    MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL));
         }
 
         @Override
@@ -850,20 +1058,20 @@ public class Buyer extends Agent {
                     deliveryBehaviour.getOtherBuyers().forEach(proposal::addReceiver);
                     proposal.setContent("delivery");
                     proposal.addUserDefinedParameter("path", path.serializePath());
-                    send(proposal);
+                    sendMessage(proposal);
                     step = 1;
                     break;
                 case 1:
-                    final ACLMessage acceptMsg = receive(acceptMT);
+                    final ACLMessage acceptMsg = mailbox.receive();
                     if (acceptMsg != null) {
                         deliveryBehaviour.addDestinations(acceptMsg.getSender());
                         final ACLMessage reply = acceptMsg.createReply();
                         reply.setPerformative(ACLMessage.CONFIRM);
                         reply.setContent("delivery");
                         reply.addUserDefinedParameter("time", String.valueOf(endTime));
-                        send(reply);
+                        sendMessage(reply);
                     } else {
-                        block(1000);
+                        block();
                     }
                     break;
             }
@@ -873,6 +1081,14 @@ public class Buyer extends Agent {
         public boolean done() {
             return System.currentTimeMillis() >= endTime;
         }
+
+        @Override
+        public int onEnd() {
+            cancelWakeUp(this);
+            closeMailbox(mailbox);
+            mailbox = null;
+            return super.onEnd();
+        }
     }
 
     private class ReceiveGoods extends Behaviour {
@@ -881,39 +1097,59 @@ public class Buyer extends Agent {
         private final MessageTemplate requestMT;
         private final MessageTemplate replyMT;
         private final MessageTemplate receiveGoodsMT;
+        private Mailbox mailbox;
+        private long startNanos;
 
         private ACLMessage requestReply;
 
+        private final boolean planned;
         private int step = 0;
         private int received = 0;
         private int sendCount = 0;
 
         public ReceiveGoods(DeliveryBehaviour deliveryBehaviour, AID deliveryAgent) {
+            this(deliveryBehaviour, deliveryAgent, false);
+        }
+
+        /**
+         * @param planned destinations are the stops of the delivery plan, they are served directly.
+         *                Buyers without destinations only wait for goods from the carrier.
+         */
+        public ReceiveGoods(DeliveryBehaviour deliveryBehaviour, AID deliveryAgent, boolean planned) {
             this.deliveryBehaviour = deliveryBehaviour;
+            this.planned = planned;
             this.deliveryAgent = deliveryAgent;
-            this.requestMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.REQUEST),
-                    MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()));
-            this.replyMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.PROPAGATE),
-                    MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()));
+            this.requestMT = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
+            this.replyMT = MessageTemplate.MatchPerformative(ACLMessage.PROPAGATE);
             this.sendCount = deliveryBehaviour.getDestinations().size();
-            this.receiveGoodsMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.CONFIRM),
-                    MessageTemplate.MatchConversationId(deliveryBehaviour.getDeliveryConversationID()));
+            this.receiveGoodsMT = MessageTemplate.MatchPerformative(ACLMessage.CONFIRM);
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, deliveryBehaviour.getDeliveryConversationID(), MessageTemplate.or(requestMT,
+                    MessageTemplate.or(replyMT, receiveGoodsMT)));
+            startNanos = System.nanoTime();
+            if (planned && !deliveryBehaviour.getCustomer().equals(deliveryAgent)) {
+                step = 3;
+            }
         }
 
         @Override
         public void action() {
             switch (step) {
                 case 0:
-                    final ACLMessage request = receive(requestMT);
+                    final ACLMessage request = mailbox.receive(requestMT);
                     if (request != null) {
                         final Set<AID> destinations = deliveryBehaviour.getDestinations();
                         requestReply = request.createReply();
                         // Propagate request.
-                        if (destinations.size() > 0) {
+                        if (destinations.size() > 0 && !planned) {
                             ACLMessage message = new ACLMessage(ACLMessage.REQUEST);
                             message.setConversationId(deliveryBehaviour.getDeliveryConversationID());
                             destinations.forEach(message::addReceiver);
-                            send(message);
+                            sendMessage(message);
                             step = 1;
                         } else {
                             step = 2;
@@ -924,19 +1160,16 @@ public class Buyer extends Agent {
                     break;
                 case 1:
                     // receive aids
-                    final ACLMessage propagate = receive(replyMT);
+                    final ACLMessage propagate = mailbox.receive(replyMT);
                     if (propagate != null) {
-                        try {
-                            final HashSet<AID> contentObject = (HashSet<AID>) propagate.getContentObject();
-                            final AID sender = propagate.getSender();
-                            deliveryBehaviour.addToTable(getAID(), sender);
-                            contentObject.forEach(aid -> {
-                                deliveryBehaviour.addToTable(sender, aid);
-                                deliveryBehaviour.addToExtendedDestination(aid);
-                            });
-                        } catch (UnreadableException e) {
-                            e.printStackTrace();
-                        }
+                        final ContentCodec codec = ContentCodecs.forMessage(propagate);
+                        final HashSet<AID> contentObject = codec.decodeAgents(codec.read(propagate));
+                        final AID sender = propagate.getSender();
+                        deliveryBehaviour.addToTable(getAID(), sender);
+                        contentObject.forEach(aid -> {
+                            deliveryBehaviour.addToTable(sender, aid);
+                            deliveryBehaviour.addToExtendedDestination(aid);
+                        });
                         received++;
                         if (received >= sendCount) {
                             step = 2;
@@ -951,44 +1184,34 @@ public class Buyer extends Agent {
                     final HashSet<AID> extendedDestination = deliveryBehaviour.getExtendedDestination();
                     extendedDestination.addAll(destinations);
                     requestReply.setPerformative(ACLMessage.PROPAGATE);
-                    try {
-                        requestReply.setContentObject(extendedDestination);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    send(requestReply);
+                    final ContentCodec requestCodec = ContentCodecs.forMessage(requestReply);
+                    requestCodec.write(requestReply, requestCodec.encodeAgents(extendedDestination));
+                    sendMessage(requestReply);
                     step = 3;
                     break;
                 case 3:
                     // receive goods
-                    final ACLMessage goodsMsg = receive(receiveGoodsMT);
+                    final ACLMessage goodsMsg = mailbox.receive(receiveGoodsMT);
                     if (goodsMsg != null) {
-                        try {
-                            final Map<AID, Map<String, Integer>> goodsMap =
-                                    (Map<AID, Map<String, Integer>>) goodsMsg.getContentObject();
-                            deleteGoodNeeds(goodsMap.get(getAID()));
-
-                            final Set<AID> aids = deliveryBehaviour.getDestinations();
-                            final Map<AID, Set<AID>> destinationTable = deliveryBehaviour.getDestinationTable();
-                            for (AID aid: aids) {
-                                HashMap<AID, Map<String, Integer>> aidGoodsMap = new HashMap<>();
-                                aidGoodsMap.put(aid, goodsMap.get(aid));
-                                final Set<AID> receivers = destinationTable.get(aid);
-                                if (receivers != null) {
-                                    receivers.forEach(receiver -> aidGoodsMap.put(receiver, goodsMap.get(receiver)));
-                                }
-
-                                ACLMessage deliveryMsg = new ACLMessage(ACLMessage.CONFIRM);
-                                deliveryMsg.setConversationId(deliveryBehaviour.getDeliveryConversationID());
-                                deliveryMsg.setContentObject(aidGoodsMap);
-//                                deliveryMsg.setContent("goods");
-                                deliveryMsg.addReceiver(aid);
-                                send(deliveryMsg);
+                        final ContentCodec codec = ContentCodecs.forMessage(goodsMsg);
+                        final Map<AID, Map<String, Integer>> goodsMap = codec.decodeGoodsDistribution(codec.read(goodsMsg));
+                        deleteGoodNeeds(goodsMap.get(getAID()));
+
+                        final Set<AID> aids = deliveryBehaviour.getDestinations();
+                        final Map<AID, Set<AID>> destinationTable = deliveryBehaviour.getDestinationTable();
+                        for (AID aid: aids) {
+                            HashMap<AID, Map<String, Integer>> aidGoodsMap = new HashMap<>();
+                            aidGoodsMap.put(aid, goodsMap.get(aid));
+                            final Set<AID> receivers = destinationTable.get(aid);
+                            if (receivers != null) {
+                                receivers.forEach(receiver -> aidGoodsMap.put(receiver, goodsMap.get(receiver)));
                             }
-                        } catch (UnreadableException e) {
-                            e.printStackTrace();
-                        } catch (IOException e) {
-                            e.printStackTrace();
+
+                            ACLMessage deliveryMsg = new ACLMessage(ACLMessage.CONFIRM);
+                            deliveryMsg.setConversationId(deliveryBehaviour.getDeliveryConversationID());
+                            codec.write(deliveryMsg, codec.encodeGoodsDistribution(aidGoodsMap));
+                            deliveryMsg.addReceiver(aid);
+                            sendMessage(deliveryMsg);
                         }
                         step = 4;
                     } else {
@@ -1008,6 +1231,7 @@ public class Buyer extends Agent {
                     final boolean b = goodNeed.getQuantity() == good.getValue();
                     logger.log(Level.INFO, String.format("Buyer %s, quantity %s", getLocalName(), String.valueOf(b)));
                     goodNeeds.remove(name);
+                    purchaseLog.goodsReceived(name, good.getValue());
                 }
             }
         }
@@ -1016,34 +1240,216 @@ public class Buyer extends Agent {
         public boolean done() {
             return step == 4;
         }
+
+        @Override
+        public int onEnd() {
+            closeMailbox(mailbox);
+            mailbox = null;
+            Metrics.record(Phase.GOODS_RECEIVING, startNanos);
+            return super.onEnd();
+        }
     }
 
-    private class ProposalTable {
-        private Map<String, CustomerProposal> proposalMap = new HashMap<>();
+    /**
+     * Open purchases known from DF notifications, indexed by offered goods.
+     */
+    static class CustomerDirectory {
+        private final Map<AID, String> purchases = new HashMap<>();
+        private final Map<AID, Set<String>> customerGoods = new HashMap<>();
+        private final Map<String, Set<AID>> goodCustomers = new HashMap<>();
 
-        public ProposalTable() {
+        public CustomerDirectory() {
         }
 
+        /**
+         * Apply DF notification. Customer without services has closed its purchase.
+         */
+        public void update(DFAgentDescription[] descriptions) {
+            for (DFAgentDescription description : descriptions) {
+                AID customer = description.getName();
+                remove(customer);
+
+                Iterator services = description.getAllServices();
+                while (services.hasNext()) {
+                    ServiceDescription service = (ServiceDescription) services.next();
+                    if ("customer".equals(service.getType())) {
+                        put(customer, service.getName(), getGoods(service));
+                    }
+                }
+            }
+        }
+
+        private static Set<String> getGoods(ServiceDescription service) {
+            Set<String> goods = new HashSet<>();
+            Iterator properties = service.getAllProperties();
+            while (properties.hasNext()) {
+                Property property = (Property) properties.next();
+                if (Customer.GOODS_PROPERTY.equals(property.getName()) && property.getValue() != null) {
+                    goods.add(property.getValue().toString());
+                }
+            }
+            return goods;
+        }
+
+        public void put(AID customer, String purchaseName, Set<String> goods) {
+            purchases.put(customer, purchaseName);
+            customerGoods.put(customer, goods);
+            goods.forEach(good -> goodCustomers.computeIfAbsent(good, key -> new HashSet<>()).add(customer));
+        }
+
+        public void remove(AID customer) {
+            purchases.remove(customer);
+            Set<String> goods = customerGoods.remove(customer);
+            if (goods == null) {
+                return;
+            }
+            for (String good : goods) {
+                Set<AID> customers = goodCustomers.get(good);
+                customers.remove(customer);
+                if (customers.isEmpty()) {
+                    goodCustomers.remove(good);
+                }
+            }
+        }
+
+        /**
+         * @return customers with open purchase of any of the goods and names of their purchases.
+         */
+        public Map<AID, String> find(Set<String> goods) {
+            Map<AID, String> found = new HashMap<>();
+            for (String good : goods) {
+                Set<AID> customers = goodCustomers.get(good);
+                if (customers != null) {
+                    customers.forEach(customer -> found.put(customer, purchases.get(customer)));
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * The best customer proposal for each good needed by the buyer, goods are indexed by their slot in the table.
+     * Proposals for goods out of the buyer needs or unknown to {@link GoodCatalog} are ignored.
+     * All proposals are kept to choose the set of purchases to join.
+     */
+    static class ProposalTable {
+        /**
+         * Share of the goods cost added for the risk, that the purchase is not formed:
+         * the rest of the purchase is larger than the quantity of the buyer.
+         */
+        static final double REST_RISK = 0.1;
+
+        private final AID owner;
+        // Slot of each needed good by good identifier and the good of each slot.
+        private final Map<Integer, Integer> slots = new HashMap<>();
+        private final int[] goods;
+        private final CustomerProposal[] proposals;
+        // Proposals of each customer by good identifier.
+        private final Map<AID, Map<Integer, CustomerProposal>> customerProposals = new LinkedHashMap<>();
+        // Route detour to the customer position.
+        private final Map<AID, Double> detours = new HashMap<>();
+
+        /**
+         * @param owner buyer, for the journal.
+         * @param goods goods needed by the buyer.
+         */
+        public ProposalTable(AID owner, Collection<String> goods) {
+            this.owner = owner;
+            this.goods = new int[goods.size()];
+            for (String name : goods) {
+                final int good = GoodCatalog.intern(name);
+                if (!slots.containsKey(good)) {
+                    this.goods[slots.size()] = good;
+                    slots.put(good, slots.size());
+                }
+            }
+            this.proposals = new CustomerProposal[slots.size()];
+        }
+
+        /**
+         * @param name good name from the customer message.
+         */
         public void addCustomerProposal(AID customer, String name, double cost, int rest) {
-            CustomerProposal customerProposal = proposalMap.get(name);
-            if (customerProposal == null) {
-                proposalMap.put(name, new CustomerProposal(customer, cost, rest));
+            final int good = GoodCatalog.idOf(name);
+            if (good != GoodCatalog.UNKNOWN) {
+                addCustomerProposal(customer, good, cost, rest);
+            }
+        }
+
+        public void addCustomerProposal(AID customer, int good, double cost, int rest) {
+            final Integer slot = slots.get(good);
+            if (slot == null) {
                 return;
             }
+            customerProposals.computeIfAbsent(customer, key -> new HashMap<>())
+                    .put(good, new CustomerProposal(customer, cost, rest));
+            CustomerProposal customerProposal = proposals[slot];
+            if (customerProposal == null || customerProposal.cost > cost
+                    || ((customerProposal.cost == cost) && (customerProposal.rest > rest))) {
+                proposals[slot] = new CustomerProposal(customer, cost, rest);
+                if (owner != null && Journal.isEnabled()) {
+                    Journal.proposalUpdated(owner.getLocalName(), customer.getLocalName(), GoodCatalog.nameOf(good),
+                            cost, rest);
+                }
+            }
+        }
+
+        public void setDetour(AID customer, double detour) {
+            detours.put(customer, detour);
+        }
 
-            if (customerProposal.cost > cost) {
-                proposalMap.put(name, new CustomerProposal(customer, cost, rest));
+        public void clear() {
+            Arrays.fill(proposals, null);
+            customerProposals.clear();
+            detours.clear();
+        }
+
+        /**
+         * Choose purchases for goods minimizing the cost of goods with the rest risk,
+         * the overhead of each joined purchase and the cost of the route detour to its customer.
+         *
+         * @param quantities     quantities of goods to buy.
+         * @param purchaseCost   overhead of joining one purchase.
+         * @param detourUnitCost cost of the detour distance unit.
+         * @return customer for each good with proposals.
+         */
+        public Map<String, AID> choosePurchases(Map<String, Integer> quantities, double purchaseCost,
+                                                double detourUnitCost) {
+            final List<AID> customers = new ArrayList<>(customerProposals.keySet());
+            final List<String> goods = new ArrayList<>(quantities.keySet());
+            final double[][] costs = new double[customers.size()][goods.size()];
+            final double[] fixedCosts = new double[customers.size()];
+            for (int customer = 0; customer < customers.size(); customer++) {
+                final AID aid = customers.get(customer);
+                final Map<Integer, CustomerProposal> offered = customerProposals.get(aid);
+                for (int good = 0; good < goods.size(); good++) {
+                    final CustomerProposal proposal = offered.get(GoodCatalog.idOf(goods.get(good)));
+                    final int quantity = quantities.get(goods.get(good));
+                    costs[customer][good] = proposal == null ? Double.POSITIVE_INFINITY
+                            : proposal.cost * quantity * (proposal.rest > quantity ? 1 + REST_RISK : 1);
+                }
+                fixedCosts[customer] = purchaseCost + detourUnitCost * detours.getOrDefault(aid, 0.0);
             }
-            if ((customerProposal.cost == cost) && (customerProposal.rest > rest)) {
-                proposalMap.put(name, new CustomerProposal(customer, cost, rest));
+
+            final int[] choice = new PurchaseSelector(costs, fixedCosts).select();
+            final Map<String, AID> chosen = new HashMap<>();
+            for (int good = 0; good < choice.length; good++) {
+                if (choice[good] >= 0) {
+                    chosen.put(goods.get(good), customers.get(choice[good]));
+                }
             }
+            return chosen;
         }
 
-        public Set<Map.Entry<String, CustomerProposal>> getEntrySet() {
-            return proposalMap.entrySet();
+        public void forEachProposal(BiConsumer<String, CustomerProposal> action) {
+            for (int slot = 0; slot < proposals.length; slot++) {
+                if (proposals[slot] != null) {
+                    action.accept(GoodCatalog.nameOf(goods[slot]), proposals[slot]);
+                }
+            }
         }
 
-        private class CustomerProposal {
+        static class CustomerProposal {
             private AID customer;
             private double cost;
             private int rest;
@@ -1,68 +1,91 @@
 package study.masystems.purchasingsystem.agents;
 
-import flexjson.JSONDeserializer;
 import flexjson.JSONSerializer;
 import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.*;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
-import jade.lang.acl.UnreadableException;
 import jade.proto.SubscriptionInitiator;
 import jade.util.Logger;
 import org.jgrapht.alg.FloydWarshallShortestPaths;
 import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodCatalog;
 import study.masystems.purchasingsystem.GoodNeed;
 import study.masystems.purchasingsystem.PurchaseInfo;
 import study.masystems.purchasingsystem.PurchaseProposal;
+import study.masystems.purchasingsystem.codec.ContentCodec;
+import study.masystems.purchasingsystem.codec.ContentCodecs;
+import study.masystems.purchasingsystem.jgrapht.BuyerGraphPath;
+import study.masystems.purchasingsystem.jgrapht.DeliveryPlan;
+import study.masystems.purchasingsystem.jgrapht.DeliveryPlanner;
+import study.masystems.purchasingsystem.jgrapht.DistanceOracle;
 import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.journal.PurchaseLog;
+import study.masystems.purchasingsystem.journal.PurchaseRecord;
+import study.masystems.purchasingsystem.metrics.Metrics;
+import study.masystems.purchasingsystem.metrics.Phase;
+import study.masystems.purchasingsystem.simulation.SimulationStats;
 import study.masystems.purchasingsystem.utils.DataGenerator;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
-import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 /**
  * Initiator of procurement.
  */
-public class Customer extends Agent {
+public class Customer extends PurchasingAgent {
     private int WAIT_FOR_SUPPLIERS_LIMIT = 3;
     private long WAIT_FOR_SUPPLIERS_TIMEOUT_MS = 5000;
     private long RECEIVE_SUPPLIERS_PROPOSAL_TIMEOUT_MS = 5000;
     private long RECEIVE_SUPPLIERS_AGREEMENT_TIMEOUT_MS = 2000;
-    private int PURCHASE_NUMBER_LIMIT = 1;
+    private int PURCHASE_NUMBER_LIMIT = 3;
+    private int MAX_CONCURRENT_PURCHASES = 2;
     private long PURCHASE_TIMEOUT_MS = 10000;
 
-    private JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
+    /**
+     * Purchase service property with the name of an offered good, one property per good.
+     */
+    static final String GOODS_PROPERTY = "goods";
 
-    private JSONDeserializer<HashMap<String, PurchaseProposal>> supplierProposeDeserializer = new JSONDeserializer<>();
-    private JSONDeserializer<Map<String, GoodNeed>> buyerProposeDeserializer = new JSONDeserializer<>();
-    private JSONDeserializer<Demand> demandDeserializer = new JSONDeserializer<>();
+    private JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
 
     private double money;
     private Integer position;
+    // City distances for delivery plans, deliveries are negotiated by buyers without it.
+    private DistanceOracle cityPaths;
+    // Proposals of suppliers, each lot of the purchase starts from it.
     private Purchase purchase;
+    // Lots in progress by conversation id and the lot open for buyers.
+    private Map<String, Purchase> purchases = new HashMap<>();
+    private Purchase openPurchase;
+    // Durable purchase events and lots restored from them, which the pipeline resumes.
+    private PurchaseLog purchaseLog;
+    private List<Purchase> restoredPurchases = new ArrayList<>();
 
     private List<AID> suppliers = new ArrayList<>();
     private Map<AID, ACLMessage> suppliersProposal = new HashMap<>();
-    private ACLMessage supplierSubscription;
+    // Supplier subscriptions by region DF.
+    private Map<AID, ACLMessage> supplierSubscriptions = new LinkedHashMap<>();
 
     private static final int SUCCESS = 0;
     private static final int FAIL = 1;
     private static final int ABORT = 2;
 
     private static Logger logger = Logger.getMyLogger(Customer.class.getName());
-    private MessageTemplate conversationWithSupplierMT;
 
     @Override
     protected void setup() {
+        awaitStart();
         initialization();
+        restorePurchases();
 
         // Build the description used as template for the subscription
         DFAgentDescription template = new DFAgentDescription();
@@ -70,24 +93,11 @@ public class Customer extends Agent {
         templateSd.setType("general-supplier");
         template.addServices(templateSd);
 
-        supplierSubscription = DFService.createSubscriptionMessage(this, getDefaultDF(), template, null);
-
-        addBehaviour(new SubscriptionInitiator(this, supplierSubscription) {
-            protected void handleInform(ACLMessage inform) {
-                System.out.println("Agent " + getLocalName() + ": Notification received from DF");
-                try {
-                    DFAgentDescription[] results = DFService.decodeNotification(inform.getContent());
-                    if (results.length > 0) {
-                        for (DFAgentDescription dfd : results) {
-                            suppliers.add(dfd.getName());
-                        }
-                    }
-                    System.out.println();
-                } catch (FIPAException fe) {
-                    fe.printStackTrace();
-                }
-            }
-        });
+        for (AID df : getSearchedDFs()) {
+            final ACLMessage supplierSubscription = DFService.createSubscriptionMessage(this, df, template, null);
+            supplierSubscriptions.put(df, supplierSubscription);
+            subscribeToSuppliers(supplierSubscription);
+        }
 
         SequentialBehaviour customerBehaviour = new SequentialBehaviour() {
             @Override
@@ -108,9 +118,10 @@ public class Customer extends Agent {
             }
         };
         customerBehaviour.addSubBehaviour(createFindSupplierBehaviour());
-        customerBehaviour.addSubBehaviour(new PurchaseOrganization(this, PURCHASE_TIMEOUT_MS));
+        customerBehaviour.addSubBehaviour(new PurchasePipeline(this, PURCHASE_TIMEOUT_MS));
 
         addBehaviour(customerBehaviour);
+        addBehaviour(createCommunicationWithBuyersBehaviour());
     }
 
     private void initialization() {
@@ -127,6 +138,9 @@ public class Customer extends Agent {
                 position = (Integer) args[0];
                 goodNeeds = (Map<String, GoodNeed>) args[1];
                 money = (Integer) args[2];
+                if (args.length > 3 && args[3] instanceof DistanceOracle) {
+                    cityPaths = (DistanceOracle) args[3];
+                }
             } catch (ClassCastException e) {
                 logger.log(Logger.WARNING, "Class Cast Exception by Customer " + this.getAID().getName() + " creation");
 
@@ -137,8 +151,88 @@ public class Customer extends Agent {
         purchase = new Purchase(getAID(), goodNeeds);
     }
 
+    /**
+     * Rebuild proposals of suppliers and unsettled lots from the purchase log of the previous run of the agent.
+     */
+    private void restorePurchases() {
+        purchaseLog = PurchaseLog.open(getLocalName());
+        final Map<String, Purchase> lots = new LinkedHashMap<>();
+        for (PurchaseRecord record : purchaseLog.getRecovered()) {
+            if (record.getConversationId() == null) {
+                if (record.getType() == PurchaseRecord.Type.PROPOSAL_ACCEPTED) {
+                    final ContentCodec codec = ContentCodecs.forLanguage(record.getLanguage());
+                    // Needs of the agent may have changed since the previous run.
+                    codec.decodeProposals(record.getContent()).forEach((good, proposal) -> {
+                        if (purchase.isNeeded(good)) {
+                            purchase.addProposal(good, proposal);
+                        }
+                    });
+                }
+                continue;
+            }
+            final Purchase lot = lots.computeIfAbsent(record.getConversationId(), purchase::restoreLot);
+            switch (record.getType()) {
+                case DEMAND_ADDED:
+                    lot.addDemand(new AID(record.getPeer(), AID.ISGUID), record.getGood(), record.getCount());
+                    break;
+                case STATE_CHANGED:
+                    lot.restoreState(record.getCount());
+                    break;
+                case ORDER_CONFIRMED:
+                    lot.orderConfirmed(new AID(record.getPeer(), AID.ISGUID));
+                    break;
+                default:
+                    break;
+            }
+        }
+        // Replayed events are not written again.
+        purchase.setLog(purchaseLog);
+        for (Purchase lot : lots.values()) {
+            lot.setLog(purchaseLog);
+            lot.optimizeLots();
+            restoredPurchases.add(lot);
+        }
+        if (!lots.isEmpty()) {
+            logger.log(Level.INFO, String.format("Customer %s restored %d purchases", getLocalName(), lots.size()));
+        }
+    }
+
+    private void subscribeToSuppliers(ACLMessage supplierSubscription) {
+        addBehaviour(new SubscriptionInitiator(this, supplierSubscription) {
+            protected void handleInform(ACLMessage inform) {
+                try {
+                    DFAgentDescription[] results = DFService.decodeNotification(inform.getContent());
+                    for (DFAgentDescription dfd : results) {
+                        suppliers.add(dfd.getName());
+                    }
+                } catch (FIPAException fe) {
+                    logger.log(Level.SEVERE, fe.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Release goods reserved by suppliers for their proposals, no order is placed against them.
+     */
+    private void rejectProposals() {
+        for (ACLMessage proposal : suppliersProposal.values()) {
+            final String reservation = proposal.getUserDefinedParameter(Supplier.RESERVATION_PARAMETER);
+            if (reservation == null) {
+                continue;
+            }
+            ACLMessage rejection = proposal.createReply();
+            rejection.setPerformative(ACLMessage.REJECT_PROPOSAL);
+            rejection.addUserDefinedParameter(Supplier.RESERVATION_PARAMETER, reservation);
+            sendMessage(rejection);
+        }
+        suppliersProposal.clear();
+    }
+
     private void unsubscribeFromSuppliers() {
-        DFService.createCancelMessage(this, getDefaultDF(), supplierSubscription);
+        for (Map.Entry<AID, ACLMessage> subscription : supplierSubscriptions.entrySet()) {
+            sendMessage(DFService.createCancelMessage(this, subscription.getKey(), subscription.getValue()));
+        }
     }
 
     /*
@@ -201,11 +295,18 @@ public class Customer extends Agent {
 
     private class WaitForSuppliers extends WakerBehaviour {
         private int status = SUCCESS;
+        private long startNanos;
 
         public WaitForSuppliers(Agent a, long timeout) {
             super(a, timeout);
         }
 
+        @Override
+        public void onStart() {
+            super.onStart();
+            startNanos = System.nanoTime();
+        }
+
         @Override
         protected void onWake() {
             super.onWake();
@@ -224,6 +325,7 @@ public class Customer extends Agent {
 
         @Override
         public int onEnd() {
+            Metrics.record(Phase.SUPPLIER_DISCOVERY, startNanos);
             return status;
         }
     }
@@ -238,16 +340,32 @@ public class Customer extends Agent {
 
         private int repliesCnt = 0;
         private boolean allReplies = false;
+        private final Set<AID> replied = new HashSet<>();
+        private Mailbox mailbox;
+        private long startNanos;
+        private long sentNanos;
 
         public GatheringProposal(Agent a, long timeout) {
             super(a);
             this.timeout = timeout;
         }
 
+        @Override
+        public void reset() {
+            super.reset();
+            state = CFP_STATE;
+            repliesCnt = 0;
+            allReplies = false;
+            replied.clear();
+        }
+
         @Override
         public void onStart() {
             super.onStart();
-            endTime = System.currentTimeMillis() + timeout;
+            endTime = System.currentTimeMillis()
+                    + getTimeoutPolicy().getTimeout(Phase.PROPOSAL_GATHERING, suppliers, timeout);
+            wakeUpAt(this, endTime);
+            startNanos = System.nanoTime();
         }
 
         @Override
@@ -257,28 +375,34 @@ public class Customer extends Agent {
                     // Send the cfp to all sellers
                     ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
                     suppliers.forEach(cfp::addReceiver);
-                    cfp.setContent(purchase.getGoodNeedsJSON());
+                    purchase.getCodec().write(cfp, purchase.getEncodedGoodNeeds());
                     String convId = "wholesale-purchase" + hashCode() + "_" + System.currentTimeMillis();
                     cfp.setConversationId(convId);
                     cfp.setReplyWith("cfp" + "_" + System.currentTimeMillis()); // Unique value
-                    myAgent.send(cfp);
-                    // Prepare the template to get proposals
-                    conversationWithSupplierMT = MessageTemplate.and(MessageTemplate.MatchConversationId(convId),
-                            MessageTemplate.MatchInReplyTo(cfp.getReplyWith()));
+                    sendMessage(cfp);
+                    sentNanos = System.nanoTime();
+                    // Prepare the mailbox to get proposals
+                    mailbox = openMailbox(this, convId, MessageTemplate.MatchInReplyTo(cfp.getReplyWith()));
                     state = RECEIVE_PROPOSALS;
                     logger.log(Level.INFO, String.format("Customer %s send CFP.", getLocalName()));
                     break;
                 }
                 case RECEIVE_PROPOSALS: {
                     // Receive all proposals/refusals from suppliers agents
-                    ACLMessage reply = myAgent.receive(conversationWithSupplierMT);
+                    ACLMessage reply = mailbox.receive();
                     if (reply != null) {
                         // Reply received
+                        if (replied.add(reply.getSender())) {
+                            getTimeoutPolicy().replied(Phase.PROPOSAL_GATHERING, reply.getSender(), sentNanos);
+                        }
                         if (reply.getPerformative() == ACLMessage.PROPOSE) {
                             suppliersProposal.put(reply.getSender(), reply);
                             // This is an offer
-                            HashMap<String, PurchaseProposal> goodsInfo =
-                                    supplierProposeDeserializer.use("values", PurchaseProposal.class).deserialize(reply.getContent());
+                            final ContentCodec codec = ContentCodecs.forMessage(reply);
+                            final byte[] content = codec.read(reply);
+                            purchaseLog.proposalAccepted(null, reply.getSender().getName(), codec.getLanguage(),
+                                    content);
+                            Map<String, PurchaseProposal> goodsInfo = codec.decodeProposals(content);
                             for (Map.Entry<String, PurchaseProposal> entry : goodsInfo.entrySet()) {
                                 purchase.addProposal(entry.getKey(), entry.getValue());
                             }
@@ -301,7 +425,16 @@ public class Customer extends Agent {
 
         @Override
         public int onEnd() {
+            cancelWakeUp(this);
+            closeMailbox(mailbox);
+            mailbox = null;
+            Metrics.record(Phase.PROPOSAL_GATHERING, startNanos);
+            if (!allReplies) {
+                getTimeoutPolicy().timedOut(Phase.PROPOSAL_GATHERING, suppliers, replied);
+            }
             if (!purchase.isFull()) {
+                // Goods reserved for the failed round are returned, the next round proposes again.
+                rejectProposals();
                 // Reset FindSupplier behaviour.
                 return FAIL;
             }
@@ -313,71 +446,142 @@ public class Customer extends Agent {
      * Purchase sequential behaviour classes.
      */
 
-    private class PurchaseOrganization extends SequentialBehaviour {
+    /**
+     * Rolling purchases: the next lot is opened as soon as the previous one is closed,
+     * while up to {@link #MAX_CONCURRENT_PURCHASES} lots are open or placing orders.
+     */
+    private class PurchasePipeline extends ParallelBehaviour {
+        private final long purchasePeriod;
         private int purchaseCounter = 0;
-        private int status = SUCCESS;
+        private int inProgress = 0;
+        private int formed = 0;
+        private boolean accepting = false;
 
-        public PurchaseOrganization(Agent a, long purchasePeriod) {
-            super(a);
-            addSubBehaviour(new OpenPurchase(myAgent));
-            addSubBehaviour(new ClosePurchase(myAgent, purchasePeriod));
-            addSubBehaviour(new PlaceOrderBehaviour(RECEIVE_SUPPLIERS_AGREEMENT_TIMEOUT_MS));
-            addSubBehaviour(new SendConfirmation(this));
-            // Delivery Behaviours.
-            myAgent.addBehaviour(createCommunicationWithBuyersBehaviour());
+        public PurchasePipeline(Agent a, long purchasePeriod) {
+            super(a, WHEN_ALL);
+            this.purchasePeriod = purchasePeriod;
         }
 
         @Override
         public void onStart() {
             super.onStart();
-            purchaseCounter++;
-            if (purchaseCounter > PURCHASE_NUMBER_LIMIT) {
-                skipNext();
-                status = ABORT;
+            for (Purchase lot : restoredPurchases) {
+                purchaseCounter++;
+                inProgress++;
+                accepting |= lot.isOpen();
+                addSubBehaviour(new PurchaseOrganization(myAgent, this, lot));
             }
+            restoredPurchases.clear();
+            startNextPurchase();
+        }
+
+        /**
+         * The lot is closed for buyers.
+         */
+        public void purchaseClosed() {
+            accepting = false;
+            startNextPurchase();
+        }
+
+        /**
+         * The lot has confirmed orders or failed, it does not hold the pipeline any more.
+         */
+        public void purchaseSettled(boolean completed) {
+            inProgress--;
+            if (completed) {
+                formed++;
+            }
+            startNextPurchase();
+        }
+
+        private void startNextPurchase() {
+            if (accepting || inProgress >= MAX_CONCURRENT_PURCHASES || purchaseCounter >= PURCHASE_NUMBER_LIMIT) {
+                return;
+            }
+            purchaseCounter++;
+            inProgress++;
+            accepting = true;
+            addSubBehaviour(new PurchaseOrganization(myAgent, this, purchase.nextLot(), purchasePeriod));
         }
 
         @Override
-        protected void scheduleNext(boolean currentDone, int currentResult) {
-            super.scheduleNext(currentDone, currentResult);
-            if (currentDone) {
-                switch (currentResult) {
-                    case (FAIL): {
-                        cancelPurchase();
-                        if (purchaseCounter >= PURCHASE_NUMBER_LIMIT) {
-                            skipNext();
-                            status = ABORT;
-                        } else {
-                            reset();
-                        }
-                        break;
-                    }
-                    case (ABORT): {
+        public int onEnd() {
+            // All lots are settled, there is nothing to restore.
+            purchaseLog.delete();
+            if (formed == 0) {
+                logger.log(Level.INFO, String.format("Customer %s: purchase organization has been aborted.", getLocalName()));
+                return ABORT;
+            }
+            return SUCCESS;
+        }
+    }
+
+    /**
+     * One lot: open, close, place order, confirm and deliver.
+     */
+    private class PurchaseOrganization extends SequentialBehaviour {
+        private final PurchasePipeline pipeline;
+        private final Purchase purchase;
+        private long openNanos;
+        private boolean settled = false;
+
+        public PurchaseOrganization(Agent a, PurchasePipeline pipeline, Purchase purchase, long purchasePeriod) {
+            super(a);
+            this.pipeline = pipeline;
+            this.purchase = purchase;
+            addSubBehaviour(new OpenPurchase(this));
+            addSubBehaviour(new ClosePurchase(this, purchasePeriod));
+            addSubBehaviour(new PlaceOrderBehaviour(purchase, RECEIVE_SUPPLIERS_AGREEMENT_TIMEOUT_MS));
+            addSubBehaviour(new SendConfirmation(this));
+        }
+
+        /**
+         * Resume the lot restored from the purchase log from its last state.
+         */
+        public PurchaseOrganization(Agent a, PurchasePipeline pipeline, Purchase purchase) {
+            super(a);
+            this.pipeline = pipeline;
+            this.purchase = purchase;
+            purchases.put(purchase.getPurchaseConvId(), purchase);
+            if (purchase.isConfirmed()) {
+                addSubBehaviour(new DeliveryBehaviour(purchase));
+            } else if (purchase.isOpen() || (purchase.isClosed() && purchase.isFormed())) {
+                if (purchase.isOpen()) {
+                    addSubBehaviour(new ReopenPurchase(this));
+                    addSubBehaviour(new ClosePurchase(this, pipeline.purchasePeriod));
+                }
+                addSubBehaviour(new PlaceOrderBehaviour(purchase, RECEIVE_SUPPLIERS_AGREEMENT_TIMEOUT_MS));
+                addSubBehaviour(new SendConfirmation(this));
+            } else {
+                // The lot was not opened or not formed, buyers are released.
+                addSubBehaviour(new OneShotBehaviour(a) {
+                    @Override
+                    public void action() {
                         cancelPurchase();
-                        skipNext();
-                        if (purchaseCounter >= PURCHASE_NUMBER_LIMIT) {
-                            status = ABORT;
-                            logger.log(
-                                    Level.INFO,
-                                    String.format("Customer %s: purchase organization has been aborted.", getLocalName())
-                            );
-                        } else {
-                            status = FAIL;
-                        }
                     }
-                }
+                });
             }
         }
 
         @Override
-        public void reset() {
-            super.reset();
-            status = SUCCESS;
+        protected void scheduleNext(boolean currentDone, int currentResult) {
+            super.scheduleNext(currentDone, currentResult);
+            if (currentDone && (currentResult == FAIL || currentResult == ABORT)) {
+                cancelPurchase();
+                skipNext();
+            }
+        }
+
+        private void settle(boolean completed) {
+            if (!settled) {
+                settled = true;
+                pipeline.purchaseSettled(completed);
+            }
         }
 
         private void cancelPurchase() {
             sendCancelMessageToBuyers();
-            purchase.clear();
+            settle(false);
         }
 
         private void sendCancelMessageToBuyers() {
@@ -385,37 +589,73 @@ public class Customer extends Agent {
             ACLMessage cancelMessage = new ACLMessage(ACLMessage.CANCEL);
             cancelMessage.setConversationId(purchase.getPurchaseConvId());
             buyers.forEach(cancelMessage::addReceiver);
-            myAgent.send(cancelMessage);
+            sendMessage(cancelMessage);
         }
 
         @Override
         public int onEnd() {
-            return status;
+            purchases.remove(purchase.getPurchaseConvId());
+            purchase.settle();
+            settle(false);
+            return super.onEnd();
         }
     }
 
     private class OpenPurchase extends OneShotBehaviour {
-        public OpenPurchase(Agent a) {
-            super(a);
+        private final PurchaseOrganization organization;
+
+        public OpenPurchase(PurchaseOrganization organization) {
+            super(organization.getAgent());
+            this.organization = organization;
         }
 
         @Override
         public void action() {
-            purchase.addOwnDemand();
+            final Purchase purchase = organization.purchase;
+            organization.openNanos = System.nanoTime();
             try {
                 purchase.register(myAgent);
+                purchase.addOwnDemand();
+                purchases.put(purchase.getPurchaseConvId(), purchase);
                 purchase.open();
+                openPurchase = purchase;
             } catch (FIPAException e) {
                 logger.log(Level.SEVERE, "Error while register purchase, agent: " + myAgent.getLocalName());
             }
         }
     }
 
+    /**
+     * Register the restored open lot again with its conversation id, which buyers already joined.
+     */
+    private class ReopenPurchase extends OneShotBehaviour {
+        private final PurchaseOrganization organization;
+
+        public ReopenPurchase(PurchaseOrganization organization) {
+            super(organization.getAgent());
+            this.organization = organization;
+        }
+
+        @Override
+        public void action() {
+            final Purchase purchase = organization.purchase;
+            organization.openNanos = System.nanoTime();
+            try {
+                purchase.reregister(myAgent);
+                openPurchase = purchase;
+            } catch (FIPAException e) {
+                logger.log(Level.SEVERE, "Error while register restored purchase, agent: " + myAgent.getLocalName());
+            }
+        }
+    }
+
     private class ClosePurchase extends WakerBehaviour {
+        private final PurchaseOrganization organization;
         private int status = SUCCESS;
 
-        public ClosePurchase(Agent a, long timeout) {
-            super(a, timeout);
+        public ClosePurchase(PurchaseOrganization organization, long timeout) {
+            super(organization.getAgent(), timeout);
+            this.organization = organization;
         }
 
         @Override
@@ -427,18 +667,25 @@ public class Customer extends Agent {
         @Override
         protected void onWake() {
             super.onWake();
+            final Purchase purchase = organization.purchase;
             purchase.close();
+            Metrics.record(Phase.PURCHASE, organization.openNanos);
             try {
                 purchase.deregister(myAgent);
             } catch (FIPAException e) {
                 e.printStackTrace();
             }
+            if (openPurchase == purchase) {
+                openPurchase = null;
+            }
             if (!purchase.isFormed()) {
                 status = FAIL;
                 logger.log(Level.INFO, String.format("%s reset purchase!", getLocalName()));
             } else {
+                SimulationStats.purchaseFormed();
                 logger.log(Level.INFO, String.format("%s purchase completed!", getLocalName()));
             }
+            organization.pipeline.purchaseClosed();
         }
 
         @Override
@@ -448,6 +695,7 @@ public class Customer extends Agent {
     }
 
     private class PlaceOrderBehaviour extends Behaviour {
+        private final Purchase purchase;
         private final long timeout;
 
         private static final int SEND_STATE = 0;
@@ -456,34 +704,47 @@ public class Customer extends Agent {
 
         private long endTime;
         private int receivedCount = 0;
-        private MessageTemplate mt;
+        private Mailbox mailbox;
 
         private Integer status = 0;
 
         private  Map<AID, Set<String>> suppliersTable;
+        private final Set<AID> replied = new HashSet<>();
+        private long startNanos;
+        private long sentNanos;
 
-        public PlaceOrderBehaviour(long timeout) {
+        public PlaceOrderBehaviour(Purchase purchase, long timeout) {
+            this.purchase = purchase;
             this.timeout = timeout;
         }
 
         @Override
         public void onStart() {
             super.onStart();
-            endTime = System.currentTimeMillis() + timeout;
             suppliersTable = purchase.getSuppliersTable();
+            // Suppliers, which confirmed the order before the restart, are not ordered again.
+            suppliersTable.keySet().removeAll(purchase.getConfirmedSuppliers());
+            endTime = System.currentTimeMillis()
+                    + getTimeoutPolicy().getTimeout(Phase.ORDER_PLACEMENT, suppliersTable.keySet(), timeout);
+            wakeUpAt(this, endTime);
+            startNanos = System.nanoTime();
         }
 
         @Override
         public void action() {
             switch (state) {
                 case SEND_STATE: {
-                    mt = send();
+                    mailbox = send();
+                    sentNanos = System.nanoTime();
                     state = RECEIVE_STATE;
                     break;
                 }
                 case RECEIVE_STATE: {
-                    ACLMessage reply = myAgent.receive(mt);
+                    ACLMessage reply = mailbox.receive();
                     if (reply != null) {
+                        if (replied.add(reply.getSender())) {
+                            getTimeoutPolicy().replied(Phase.ORDER_PLACEMENT, reply.getSender(), sentNanos);
+                        }
                         handleReply(reply);
                         receivedCount ++;
                     } else {
@@ -494,9 +755,10 @@ public class Customer extends Agent {
             }
         }
 
-        protected MessageTemplate send() {
+        protected Mailbox send() {
             logger.log(Level.INFO, String.format("Customer %s send order to suppliers", myAgent.getLocalName()));
             final String conversationId = "purchase order" + hashCode() + System.currentTimeMillis();
+            final ContentCodec codec = ContentCodecs.getDefault();
             suppliersTable.forEach((supplier, goods) -> {
                 // Form order for supplier.
                 Map<String, Integer> order = new HashMap<>();
@@ -506,17 +768,23 @@ public class Customer extends Agent {
                 ACLMessage message = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
                 message.addReceiver(supplier);
                 message.setConversationId(conversationId);
-                message.setContent(jsonSerializer.serialize(order));
-                myAgent.send(message);
+                // Take goods reserved by the proposal of the supplier.
+                final ACLMessage proposal = suppliersProposal.get(supplier);
+                if (proposal != null && proposal.getUserDefinedParameter(Supplier.RESERVATION_PARAMETER) != null) {
+                    message.addUserDefinedParameter(Supplier.RESERVATION_PARAMETER,
+                            proposal.getUserDefinedParameter(Supplier.RESERVATION_PARAMETER));
+                }
+                codec.write(message, codec.encodeOrder(order));
+                sendMessage(message);
 
             });
-            return MessageTemplate.MatchConversationId(conversationId);
+            return openMailbox(this, conversationId, null);
         }
 
         protected void handleReply(ACLMessage reply) {
             switch (reply.getPerformative()) {
                 case ACLMessage.CONFIRM: {
-                    // Ok.
+                    purchase.orderConfirmed(reply.getSender());
                     break;
                 }
                 case ACLMessage.REFUSE: {
@@ -541,11 +809,17 @@ public class Customer extends Agent {
             state = SEND_STATE;
             receivedCount = 0;
             status = SUCCESS;
+            replied.clear();
         }
 
         @Override
         public int onEnd() {
+            cancelWakeUp(this);
+            closeMailbox(mailbox);
+            mailbox = null;
+            Metrics.record(Phase.ORDER_PLACEMENT, startNanos);
             if (!allReceived()) {
+                getTimeoutPolicy().timedOut(Phase.ORDER_PLACEMENT, suppliersTable.keySet(), replied);
                 return ABORT;
             }
             return status;
@@ -565,39 +839,69 @@ public class Customer extends Agent {
 
         @Override
         public void action() {
+            final Purchase purchase = purchaseOrganization.purchase;
             HashSet<AID> buyers = purchase.getBuyers();
             buyers.remove(getAID());
             ACLMessage confirmation = new ACLMessage(ACLMessage.CONFIRM);
             buyers.forEach(confirmation::addReceiver);
             confirmation.setConversationId(purchase.getPurchaseConvId());
-            confirmation.setContent(jsonSerializer.serialize(buyers));
-            try {
-                confirmation.setContentObject(buyers);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            final ContentCodec codec = ContentCodecs.getDefault();
+            codec.write(confirmation, codec.encodeAgents(buyers));
             confirmation.addUserDefinedParameter("position", jsonSerializer.serialize(position));
-            myAgent.send(confirmation);
-            purchaseOrganization.addSubBehaviour(new DeliveryBehaviour());
+            final DeliveryPlan<AID> plan = planDelivery(purchase, buyers);
+            if (plan != null) {
+                confirmation.addUserDefinedParameter("plan", plan.serialize(AID::getName));
+                logger.log(Level.INFO, String.format("Customer %s planned delivery by %d carriers, detour %.1f",
+                        getLocalName(), plan.getCarriers().size(), plan.getDetour()));
+            }
+            sendMessage(confirmation);
+            purchase.confirm();
+            SimulationStats.purchaseCompleted();
+            purchaseOrganization.addSubBehaviour(new DeliveryBehaviour(purchase));
+            purchaseOrganization.settle(true);
         }
     }
 
+    /**
+     * @return delivery plan over routes of buyers, <tt>null</tt> if a route or the city is not known.
+     */
+    private DeliveryPlan<AID> planDelivery(Purchase purchase, Set<AID> buyers) {
+        if (cityPaths == null || position == null || !cityPaths.containsVertex(position) || buyers.isEmpty()) {
+            return null;
+        }
+        final DeliveryPlanner<AID> planner = new DeliveryPlanner<>(cityPaths);
+        for (AID buyer : buyers) {
+            final List<Integer> route = purchase.getBuyerRoute(buyer);
+            if (route == null || route.isEmpty()) {
+                return null;
+            }
+            planner.addRoute(buyer, route);
+        }
+        return planner.plan(position);
+    }
+
     private class DeliveryBehaviour extends Behaviour {
+        private final Purchase purchase;
         private final String deliveryConversationID;
-        private final MessageTemplate infoMT;
+        private Mailbox mailbox;
 
-        public DeliveryBehaviour() {
+        public DeliveryBehaviour(Purchase purchase) {
+            this.purchase = purchase;
             this.deliveryConversationID = purchase.getPurchaseConvId() + "_delivery";
-            this.infoMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.INFORM),
-                    MessageTemplate.MatchConversationId(deliveryConversationID));
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, deliveryConversationID, MessageTemplate.MatchPerformative(ACLMessage.INFORM));
         }
 
         @Override
         public void action() {
-            final ACLMessage infoMsg = receive(infoMT);
+            final ACLMessage infoMsg = mailbox.receive();
             if (infoMsg != null) {
                 Long requestTime = new Long(infoMsg.getContent());
-                myAgent.addBehaviour(new RequestForDeliveryList(myAgent, new Date(requestTime), infoMsg));
+                myAgent.addBehaviour(new RequestForDeliveryList(myAgent, purchase, new Date(requestTime), infoMsg));
             } else {
                 block();
             }
@@ -608,13 +912,21 @@ public class Customer extends Agent {
             // Check purchase.
             return purchase.getBuyers().size() == 1;
         }
+
+        @Override
+        public int onEnd() {
+            closeMailbox(mailbox);
+            return super.onEnd();
+        }
     }
 
     private class RequestForDeliveryList extends WakerBehaviour {
+        private final Purchase purchase;
         private final ACLMessage infoMsg;
 
-        public RequestForDeliveryList(Agent a, Date date, ACLMessage infoMsg) {
+        public RequestForDeliveryList(Agent a, Purchase purchase, Date date, ACLMessage infoMsg) {
             super(a, date);
+            this.purchase = purchase;
             this.infoMsg = infoMsg;
 //            logger.log(Level.INFO, String.format("Current time %d, timeout %d", System.currentTimeMillis(), timeout));
         }
@@ -624,47 +936,52 @@ public class Customer extends Agent {
             super.onWake();
             final ACLMessage reply = infoMsg.createReply();
             reply.setPerformative(ACLMessage.REQUEST);
-            send(reply);
-            addBehaviour(new GiveGoods(infoMsg.getSender(), infoMsg.getConversationId()));
+            sendMessage(reply);
+            addBehaviour(new GiveGoods(purchase, infoMsg.getSender(), infoMsg.getConversationId()));
         }
     }
 
     private class GiveGoods extends Behaviour {
+        private final Purchase purchase;
         private final AID buyer;
-        private final MessageTemplate propagateMT;
+        private final String conversationId;
+        private Mailbox mailbox;
 
         private int step = 0;
 
-        public GiveGoods(AID buyer, String conversationId) {
+        public GiveGoods(Purchase purchase, AID buyer, String conversationId) {
+            this.purchase = purchase;
             this.buyer = buyer;
-            this.propagateMT = MessageTemplate.and(MessageTemplate.MatchPerformative(ACLMessage.PROPAGATE),
-                    MessageTemplate.and(MessageTemplate.MatchConversationId(conversationId),
-                            MessageTemplate.MatchSender(buyer)));
+            this.conversationId = conversationId;
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, conversationId, MessageTemplate.and(
+                    MessageTemplate.MatchPerformative(ACLMessage.PROPAGATE), MessageTemplate.MatchSender(buyer)));
         }
 
         @Override
         public void action() {
             switch (step) {
                 case 0:
-                    final ACLMessage goodsRequest = receive(propagateMT);
+                    final ACLMessage goodsRequest = mailbox.receive();
                     if (goodsRequest != null) {
-                        try {
-                            final Set<AID> buyers = (Set<AID>) goodsRequest.getContentObject();
-                            HashMap<AID, Map<String, Integer>> goodsMap = new HashMap<>();
+                        final ContentCodec codec = ContentCodecs.forMessage(goodsRequest);
+                        final Set<AID> buyers = codec.decodeAgents(codec.read(goodsRequest));
+                        HashMap<AID, Map<String, Integer>> goodsMap = new HashMap<>();
+                        goodsMap.put(buyer, purchase.getBuyerGoods(buyer));
+                        for (AID buyer: buyers) {
                             goodsMap.put(buyer, purchase.getBuyerGoods(buyer));
-                            for (AID buyer: buyers) {
-                                goodsMap.put(buyer, purchase.getBuyerGoods(buyer));
-                            }
-                            final ACLMessage reply = goodsRequest.createReply();
-                            reply.setPerformative(ACLMessage.CONFIRM);
-                            reply.setContentObject(goodsMap);
-                            send(reply);
-                        } catch (UnreadableException e) {
-                            e.printStackTrace();
-                        } catch (IOException e) {
-                            e.printStackTrace();
                         }
+                        final ACLMessage reply = goodsRequest.createReply();
+                        reply.setPerformative(ACLMessage.CONFIRM);
+                        codec.write(reply, codec.encodeGoodsDistribution(goodsMap));
+                        sendMessage(reply);
                         step = 1;
+                    } else {
+                        block();
                     }
                     break;
             }
@@ -674,6 +991,12 @@ public class Customer extends Agent {
         public boolean done() {
             return step == 1;
         }
+
+        @Override
+        public int onEnd() {
+            closeMailbox(mailbox);
+            return super.onEnd();
+        }
     }
 
     /*
@@ -691,22 +1014,30 @@ public class Customer extends Agent {
      * Receive CFP from buyers and send reply with proposal.
      */
     private class HandleBuyerCFP extends Behaviour {
+        private Mailbox mailbox;
 
         @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.CFP);
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, null, MessageTemplate.MatchPerformative(ACLMessage.CFP));
+        }
 
-            ACLMessage msg = myAgent.receive(mt);
+        @Override
+        public void action() {
+            ACLMessage msg = mailbox.receive();
             if (msg != null) {
                 // CFP Message received. Process it
-                Map<String, GoodNeed> goodsRequest = buyerProposeDeserializer.use("values", GoodNeed.class).deserialize(msg.getContent());
+                final ContentCodec codec = ContentCodecs.forMessage(msg);
+                Map<String, GoodNeed> goodsRequest = codec.decodeGoodNeeds(codec.read(msg));
                 ACLMessage reply = msg.createReply();
+                // Rests of the lot open for buyers, otherwise proposals only.
+                final Purchase purchase = openPurchase != null ? openPurchase : Customer.this.purchase;
 
                 Map<String, Double> goodPrices = new HashMap<>();
                 int deliveryPeriod = -1;
                 for (Map.Entry<String, GoodNeed> good : goodsRequest.entrySet()) {
                     String goodName = good.getKey();
-                    PurchaseProposal purchaseProposal = purchase.purchaseTable.get(goodName);
+                    PurchaseProposal purchaseProposal = purchase.getProposal(goodName);
                     if (purchaseProposal != null) {
                         deliveryPeriod = Math.max(deliveryPeriod, purchaseProposal.getDeliveryPeriodDays());
                         goodPrices.put(goodName, purchaseProposal.getCost());
@@ -721,14 +1052,18 @@ public class Customer extends Agent {
 
                     // The requested goods are available for sale. Reply with proposal.
                     reply.setPerformative(ACLMessage.PROPOSE);
-                    reply.setContent(jsonSerializer.exclude("*.class").serialize(purchaseInfo));
+                    codec.write(reply, codec.encodePurchaseInfo(purchaseInfo));
+                    if (position != null) {
+                        // Buyers take the route detour to the customer into account.
+                        reply.addUserDefinedParameter("position", jsonSerializer.serialize(position));
+                    }
                 }
                 else {
                     // We don't have requested goods.
                     reply.setPerformative(ACLMessage.REFUSE);
                     reply.setContent("not-available");
                 }
-                myAgent.send(reply);
+                sendMessage(reply);
                 logger.log(Level.INFO, String.format("Customer %s replied to buyer.", getLocalName()));
             } else {
                 block();
@@ -745,25 +1080,37 @@ public class Customer extends Agent {
      * Add buyer to the party if purchase is open.
      */
     private class AddBuyerToParty extends Behaviour {
+        private Mailbox mailbox;
+
+        @Override
+        public void onStart() {
+            super.onStart();
+            mailbox = openMailbox(this, null, MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL));
+        }
+
         @Override
         public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL);
-            ACLMessage msg = myAgent.receive(mt);
+            ACLMessage msg = mailbox.receive();
             if (msg != null) {
                 ACLMessage reply = msg.createReply();
-                final String conversationId = msg.getConversationId();
-                if (!conversationId.equals(purchase.getPurchaseConvId())|| !purchase.isOpen()) {
+                final Purchase purchase = purchases.get(msg.getConversationId());
+                if (purchase == null || !purchase.isOpen()) {
                     reply.setPerformative(ACLMessage.REFUSE);
                 } else {
-                    Demand demand = demandDeserializer.use("orders",HashMap.class).deserialize(msg.getContent(), Demand.class);
+                    final ContentCodec codec = ContentCodecs.forMessage(msg);
+                    Demand demand = codec.decodeDemand(codec.read(msg));
                     boolean success = purchase.addDemand(msg.getSender(), demand);
+                    final String route = msg.getUserDefinedParameter("path");
+                    if (success && route != null) {
+                        purchase.setBuyerRoute(msg.getSender(), BuyerGraphPath.<Integer>deserializePath(route));
+                    }
                     if (success) {
                         reply.setPerformative(ACLMessage.AGREE);
                     } else {
                         reply.setPerformative(ACLMessage.UNKNOWN);
                     }
                 }
-                myAgent.send(reply);
+                sendMessage(reply);
             } else {
                 block();
             }
@@ -778,19 +1125,55 @@ public class Customer extends Agent {
     @Override
     protected void takeDown() {
         super.takeDown();
+        rejectProposals();
+        // Unsettled purchases are restored on the next start.
+        purchaseLog.close();
+        unsubscribeFromSuppliers();
         logger.log(Level.INFO, String.format("Customer %s terminate.", getAID().getName()));
     }
 
     /**
      * Current purchase state. Maintain table of goods with proposals.
+     * Tables are indexed by good identifier from {@link GoodCatalog}.
+     * The purchase table holds the chosen proposal of each good: the cheapest one,
+     * until demand arrives and lots are chosen from proposals of all suppliers by {@link #optimizeLots()}.
      */
-    private static class Purchase {
+    static class Purchase {
+        /**
+         * Cost of ordering from one more supplier, in money units.
+         */
+        static final double SUPPLIER_OVERHEAD_COST = 500;
+        /**
+         * Share of the unit cost added for each unit of demand below the minimal quantity of the supplier.
+         */
+        static final double SHORTFALL_COST = 1.0;
+
         private AID customer;
         private Map<String, GoodNeed> goodNeeds;
-        private String goodNeedsJSON;
-
-        private Map<String, PurchaseProposal> purchaseTable = new HashMap<>();
-        private Map<String, DemandTable> demandTable = new HashMap<>();
+        private ContentCodec codec;
+        private byte[] encodedGoodNeeds;
+
+        // Identifiers of needed goods.
+        private final int[] goods;
+        private final GoodNeed[] needTable;
+        private final PurchaseProposal[] purchaseTable;
+        // Proposals of all suppliers, one per supplier, for the choice of lots.
+        private final List<PurchaseProposal>[] proposalTable;
+        private final DemandTable[] demandTable;
+        // Routes of buyers for the delivery plan.
+        private final Map<AID, List<Integer>> buyerRoutes = new HashMap<>();
+        // Suppliers, which confirmed the order of the lot.
+        private final Set<AID> confirmedSuppliers = new HashSet<>();
+        private PurchaseLog log = PurchaseLog.DISABLED;
+        private int proposalsCount = 0;
+        // Some good has proposals of several suppliers.
+        private boolean severalSuppliers = false;
+        // Proposals or demand changed since the last choice of lots.
+        private boolean lotsChanged = false;
+        // Goods of purchase table with total demand below minimal quantity.
+        private final BitSet unsatisfiedGoods = new BitSet();
+        // Goods with demand of buyers, which accepted the terms of their chosen proposals.
+        private final BitSet quotedGoods = new BitSet();
 
         private PurchaseState purchaseState = PurchaseState.NONE;
         private String purchaseConvId = "";
@@ -799,29 +1182,199 @@ public class Customer extends Agent {
         public Purchase(AID customer, Map<String, GoodNeed> goodNeeds) {
             this.customer = customer;
             this.goodNeeds = goodNeeds;
-            this.goodNeedsJSON = (new JSONSerializer().exclude("*.class")).serialize(goodNeeds);
+            this.codec = ContentCodecs.getDefault();
+            this.encodedGoodNeeds = codec.encodeGoodNeeds(goodNeeds);
+
+            this.goods = new int[goodNeeds.size()];
+            int i = 0;
+            int tableSize = 0;
+            for (String good : goodNeeds.keySet()) {
+                goods[i] = GoodCatalog.intern(good);
+                tableSize = Math.max(tableSize, goods[i] + 1);
+                i++;
+            }
+            this.needTable = new GoodNeed[tableSize];
+            this.purchaseTable = new PurchaseProposal[tableSize];
+            this.proposalTable = newProposalTable(tableSize);
+            this.demandTable = new DemandTable[tableSize];
+            goodNeeds.forEach((good, goodNeed) -> needTable[GoodCatalog.idOf(good)] = goodNeed);
+        }
+
+        private Purchase(Purchase template) {
+            this.customer = template.customer;
+            this.goodNeeds = template.goodNeeds;
+            this.codec = template.codec;
+            this.encodedGoodNeeds = template.encodedGoodNeeds;
+            this.log = template.log;
+
+            this.goods = template.goods;
+            this.needTable = template.needTable;
+            this.purchaseTable = template.purchaseTable.clone();
+            this.proposalTable = newProposalTable(needTable.length);
+            this.demandTable = new DemandTable[needTable.length];
+            this.proposalsCount = template.proposalsCount;
+            this.severalSuppliers = template.severalSuppliers;
+            this.lotsChanged = true;
+            for (int good : goods) {
+                if (template.proposalTable[good] != null) {
+                    proposalTable[good] = new ArrayList<>(template.proposalTable[good]);
+                }
+                if (purchaseTable[good] != null) {
+                    unsatisfiedGoods.set(good);
+                }
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static List<PurchaseProposal>[] newProposalTable(int size) {
+            return (List<PurchaseProposal>[]) new List[size];
+        }
+
+        /**
+         * @return new lot with proposals of this purchase and without demand.
+         */
+        public Purchase nextLot() {
+            return new Purchase(this);
+        }
+
+        /**
+         * @return lot of the conversation with proposals of this purchase, its demand and state are replayed later.
+         */
+        public Purchase restoreLot(String conversationId) {
+            final Purchase lot = new Purchase(this);
+            lot.purchaseConvId = conversationId;
+            return lot;
+        }
+
+        public void setLog(PurchaseLog log) {
+            this.log = log;
+        }
+
+        /**
+         * @return identifier of needed good or <tt>GoodCatalog.UNKNOWN</tt>.
+         */
+        private int goodId(String name) {
+            final int id = GoodCatalog.idOf(name);
+            return (id >= 0 && id < needTable.length && needTable[id] != null) ? id : GoodCatalog.UNKNOWN;
+        }
+
+        public boolean isNeeded(String name) {
+            return goodId(name) != GoodCatalog.UNKNOWN;
         }
 
         /**
          * Add new proposal to the table. Replace old one if new is better.
+         * Proposals for goods the customer does not need are ignored.
          *
          * @param name        good's name.
          * @param newProposal new proposal.
          */
         public void addProposal(String name, PurchaseProposal newProposal) {
-            GoodNeed goodNeed = goodNeeds.get(name);
+            final int good = goodId(name);
+            if (good != GoodCatalog.UNKNOWN) {
+                addProposal(good, newProposal);
+            }
+        }
+
+        public void addProposal(int good, PurchaseProposal newProposal) {
+            GoodNeed goodNeed = needTable[good];
 
             int deliveryPeriod = goodNeed.getDeliveryPeriodDays();
             if (deliveryPeriod < newProposal.getDeliveryPeriodDays()) {
                 return;
             }
+            addSupplierProposal(good, newProposal);
 
-            PurchaseProposal oldProposal = purchaseTable.get(name);
+            PurchaseProposal oldProposal = purchaseTable[good];
+            if (quotedGoods.get(good)) {
+                return;
+            }
             if (oldProposal == null) {
-                purchaseTable.put(name, newProposal);
+                purchaseTable[good] = newProposal;
+                proposalsCount++;
+                updateSatisfaction(good);
             } else {
                 if (compareProposal(oldProposal, newProposal) < 0) {
-                    purchaseTable.put(name, newProposal);
+                    purchaseTable[good] = newProposal;
+                    updateSatisfaction(good);
+                }
+            }
+        }
+
+        /**
+         * Keep the proposal of the supplier for the choice of lots, replace the previous one of the same supplier.
+         */
+        private void addSupplierProposal(int good, PurchaseProposal newProposal) {
+            List<PurchaseProposal> proposals = proposalTable[good];
+            if (proposals == null) {
+                proposals = new ArrayList<>(2);
+                proposalTable[good] = proposals;
+            }
+            for (int i = 0; i < proposals.size(); i++) {
+                if (Objects.equals(proposals.get(i).getSupplier(), newProposal.getSupplier())) {
+                    proposals.set(i, newProposal);
+                    lotsChanged = true;
+                    return;
+                }
+            }
+            proposals.add(newProposal);
+            severalSuppliers |= proposals.size() > 1;
+            lotsChanged = true;
+        }
+
+        /**
+         * Choose the supplier of each good minimizing the cost of goods, the count of suppliers
+         * and the shortfall of total demand against minimal quantities of suppliers.
+         * Goods without demand are chosen by the quantity of the customer.
+         * Goods quoted to buyers keep their proposal, so the terms accepted by buyers stay valid.
+         * Does nothing unless proposals or demand changed and some good has several suppliers.
+         */
+        public void optimizeLots() {
+            if (!lotsChanged || !severalSuppliers) {
+                return;
+            }
+            lotsChanged = false;
+
+            final Map<AID, Integer> supplierIndex = new HashMap<>();
+            for (int good : goods) {
+                if (proposalTable[good] != null) {
+                    proposalTable[good].forEach(proposal ->
+                            supplierIndex.putIfAbsent(proposal.getSupplier(), supplierIndex.size()));
+                }
+            }
+            final double[][] costs = new double[supplierIndex.size()][goods.length];
+            final PurchaseProposal[][] lots = new PurchaseProposal[supplierIndex.size()][goods.length];
+            for (double[] supplierCosts : costs) {
+                Arrays.fill(supplierCosts, Double.POSITIVE_INFINITY);
+            }
+            for (int i = 0; i < goods.length; i++) {
+                final int good = goods[i];
+                if (proposalTable[good] == null) {
+                    continue;
+                }
+                final int quantity = demandTable[good] == null
+                        ? needTable[good].getQuantity() : demandTable[good].getTotal();
+                for (PurchaseProposal proposal : proposalTable[good]) {
+                    if (quotedGoods.get(good)) {
+                        if (!Objects.equals(proposal.getSupplier(), purchaseTable[good].getSupplier())) {
+                            continue;
+                        }
+                        proposal = purchaseTable[good];
+                    }
+                    final int supplier = supplierIndex.get(proposal.getSupplier());
+                    final int shortfall = Math.max(0, proposal.getMinimalQuantity() - quantity);
+                    costs[supplier][i] = proposal.getCost() * (quantity + SHORTFALL_COST * shortfall);
+                    lots[supplier][i] = proposal;
+                }
+            }
+            final double[] supplierCosts = new double[supplierIndex.size()];
+            Arrays.fill(supplierCosts, SUPPLIER_OVERHEAD_COST);
+
+            final int[] choice = new PurchaseSelector(costs, supplierCosts).select();
+            for (int i = 0; i < goods.length; i++) {
+                if (choice[i] >= 0 && purchaseTable[goods[i]] != lots[choice[i]][i]) {
+                    purchaseTable[goods[i]] = lots[choice[i]][i];
+                    updateSatisfaction(goods[i]);
                 }
             }
         }
@@ -836,21 +1389,30 @@ public class Customer extends Agent {
             return 0;
         }
 
+        /**
+         * @return the best proposal for the good, <tt>null</tt> if there is no proposal.
+         */
+        public PurchaseProposal getProposal(String name) {
+            final int good = goodId(name);
+            return good == GoodCatalog.UNKNOWN ? null : purchaseTable[good];
+        }
+
         public void addOwnDemand() {
-            Demand demand = new Demand();
-            goodNeeds.forEach((good, goodNeed) -> {
-                demand.put(good, goodNeed.getQuantity());
-            });
-            addDemand(customer, demand);
+            for (int good : goods) {
+                addDemand(customer, good, needTable[good].getQuantity());
+            }
+            optimizeLots();
         }
 
         public boolean addDemand(AID buyer, Demand demand) {
             Map<String, Integer> orders = demand.getOrders();
+            boolean success = true;
             for (Map.Entry<String, Integer> entry: orders.entrySet()) {
-                boolean success = addDemand(buyer, entry.getKey(), entry.getValue());
-                if (!success) return false;
+                success = addDemand(buyer, entry.getKey(), entry.getValue());
+                if (!success) break;
             }
-            return true;
+            optimizeLots();
+            return success;
         }
 
         /**
@@ -860,18 +1422,37 @@ public class Customer extends Agent {
          * @return <tt>true<tt/>, if demand added successfully; false, if good is not found.
          */
         public boolean addDemand(AID buyer, String good, int count) {
-            if (!purchaseTable.containsKey(good)) {
+            final int id = goodId(good);
+            return id != GoodCatalog.UNKNOWN && addDemand(buyer, id, count);
+        }
+
+        public boolean addDemand(AID buyer, int good, int count) {
+            if (purchaseTable[good] == null) {
                 return false;
             }
-            DemandTable demand = demandTable.get(good);
+            DemandTable demand = demandTable[good];
             if (demand == null) {
-                demandTable.put(good, new DemandTable(buyer, count));
+                demandTable[good] = new DemandTable(buyer, count);
             } else {
                 demand.put(buyer, count);
             }
+            if (!Objects.equals(buyer, customer)) {
+                quotedGoods.set(good);
+            }
+            lotsChanged = true;
+            updateSatisfaction(good);
+            log.demandAdded(purchaseConvId, buyer.getName(), GoodCatalog.nameOf(good), count);
+            if (Journal.isEnabled()) {
+                Journal.demandAdded(customer.getLocalName(), purchaseConvId, buyer.getLocalName(),
+                        GoodCatalog.nameOf(good), count, demandTable[good].getTotal());
+            }
             return true;
         }
 
+        private void updateSatisfaction(int good) {
+            unsatisfiedGoods.set(good, demandTable[good] == null || getRest(good) > 0);
+        }
+
         public void register(Agent customer) throws FIPAException {
             DFService.register(customer, getNewPurchaseDescription());
         }
@@ -881,11 +1462,20 @@ public class Customer extends Agent {
         }
 
         public void clear() {
-            demandTable.clear();
+            Arrays.fill(demandTable, null);
+            for (int good : goods) {
+                if (purchaseTable[good] != null) {
+                    unsatisfiedGoods.set(good);
+                }
+            }
         }
 
-        public String getGoodNeedsJSON() {
-            return goodNeedsJSON;
+        public ContentCodec getCodec() {
+            return codec;
+        }
+
+        public byte[] getEncodedGoodNeeds() {
+            return encodedGoodNeeds;
         }
 
         public String getPurchaseConvId() {
@@ -897,60 +1487,123 @@ public class Customer extends Agent {
             return purchaseConvId;
         }
 
+        /**
+         * Register the purchase with its current conversation id. Stale registrations of the agent are removed.
+         */
+        public void reregister(Agent customer) throws FIPAException {
+            try {
+                DFService.deregister(customer);
+            } catch (FIPAException e) {
+                // Nothing is registered.
+            }
+            DFService.register(customer, createPurchaseDescription());
+        }
+
         private DFAgentDescription getPurchaseDescription() {
             return purchaseDescription;
         }
 
         private DFAgentDescription getNewPurchaseDescription() {
+            getNewPurchaseConvId();
+            return createPurchaseDescription();
+        }
+
+        private DFAgentDescription createPurchaseDescription() {
             this.purchaseDescription = new DFAgentDescription();
             ServiceDescription serviceDescription = new ServiceDescription();
             serviceDescription.setType("customer");
-            serviceDescription.setName(getNewPurchaseConvId());
+            serviceDescription.setName(purchaseConvId);
+            for (String good : getOfferedGoods()) {
+                serviceDescription.addProperties(new Property(GOODS_PROPERTY, good));
+            }
             this.purchaseDescription.addServices(serviceDescription);
             return  purchaseDescription;
         }
 
+        /**
+         * @return goods with supplier proposal, buyers can join the purchase with them.
+         */
+        public List<String> getOfferedGoods() {
+            List<String> offeredGoods = new ArrayList<>();
+            for (int good : goods) {
+                if (purchaseTable[good] != null) {
+                    offeredGoods.add(GoodCatalog.nameOf(good));
+                }
+            }
+            return offeredGoods;
+        }
+
         public HashSet<AID> getBuyers() {
             HashSet<AID> buyers = new HashSet<>();
-            demandTable.forEach((good, demand) -> buyers.addAll(demand.getBuyers()));
+            for (int good : goods) {
+                if (demandTable[good] != null) {
+                    buyers.addAll(demandTable[good].getBuyers());
+                }
+            }
             return buyers;
         }
 
+        public void setBuyerRoute(AID buyer, List<Integer> route) {
+            buyerRoutes.put(buyer, route);
+        }
+
+        /**
+         * @return route of the buyer, <tt>null</tt> if the buyer has not sent it.
+         */
+        public List<Integer> getBuyerRoute(AID buyer) {
+            return buyerRoutes.get(buyer);
+        }
+
         public HashMap<String, Integer> getBuyerGoods(AID buyer) {
             HashMap<String, Integer> goodsMap = new HashMap<>();
-            demandTable.forEach((good, demand) -> {
+            for (int good : goods) {
+                final DemandTable demand = demandTable[good];
+                if (demand == null) {
+                    continue;
+                }
                 final Integer count = demand.remove(buyer);
                 if (count != null) {
-                    goodsMap.put(good, count);
+                    goodsMap.put(GoodCatalog.nameOf(good), count);
+                    updateSatisfaction(good);
+                    log.demandRemoved(purchaseConvId, buyer.getName(), GoodCatalog.nameOf(good));
                 }
-            });
+            }
             return goodsMap;
         }
 
         public HashSet<AID> getSuppliers() {
             HashSet<AID> suppliers = new HashSet<>();
-            purchaseTable.forEach((good, purchase) -> suppliers.add(purchase.getSupplier()));
+            for (int good : goods) {
+                if (purchaseTable[good] != null) {
+                    suppliers.add(purchaseTable[good].getSupplier());
+                }
+            }
             return suppliers;
         }
 
         public Map<AID, Set<String>> getSuppliersTable() {
             Map<AID, Set<String>> suppliersTable = new HashMap<>();
-            purchaseTable.forEach((good, purchase) -> {
+            for (int good : goods) {
+                final PurchaseProposal purchase = purchaseTable[good];
+                if (purchase == null) {
+                    continue;
+                }
                 AID supplier = purchase.getSupplier();
                 Set<String> goods = suppliersTable.get(supplier);
                 if (goods == null) {
                     goods = new HashSet<>();
-                    goods.add(good);
+                    goods.add(GoodCatalog.nameOf(good));
                     suppliersTable.put(supplier, goods);
                 } else {
-                    goods.add(good);
+                    goods.add(GoodCatalog.nameOf(good));
                 }
-            });
+            }
             return suppliersTable;
         }
 
         public int getTotalDemand(String good) {
-            DemandTable demand = demandTable.get(good);
+            final int id = goodId(good);
+            DemandTable demand = id == GoodCatalog.UNKNOWN ? null : demandTable[id];
             if (demand == null) {
                 throw new NoSuchElementException("Good " + good + " not found.");
             }
@@ -963,12 +1616,7 @@ public class Customer extends Agent {
          * @return <tt>true</tt>, if all good needs are satisfied.
          */
         public boolean isFull() {
-            for (String name : goodNeeds.keySet()) {
-                if (!purchaseTable.containsKey(name)) {
-                    return false;
-                }
-            }
-            return true;
+            return proposalsCount == goods.length;
         }
 
         /**
@@ -977,24 +1625,17 @@ public class Customer extends Agent {
          * @return <tt>true</tt>, if all requirements are satisfied.
          */
         public boolean isFormed() {
-            for (Map.Entry<String, PurchaseProposal> entry : purchaseTable.entrySet()) {
-                int minimalQuantity = entry.getValue().getMinimalQuantity();
-                DemandTable demand = demandTable.get(entry.getKey());
-                if (demand == null) {
-                    return false;
-                }
-                int totalDemand = demand.getTotal();
-                if (minimalQuantity > totalDemand) {
-                    return false;
-                }
-            }
-            return true;
+            return unsatisfiedGoods.isEmpty();
         }
 
         public int getRest(String name) {
-            final PurchaseProposal purchaseProposal = purchaseTable.get(name);
+            return getRest(goodId(name));
+        }
+
+        public int getRest(int good) {
+            final PurchaseProposal purchaseProposal = purchaseTable[good];
             int minimalQuantity = purchaseProposal.getMinimalQuantity();
-            DemandTable demand = demandTable.get(name);
+            DemandTable demand = demandTable[good];
             if (demand == null) {
                 return 0;
             }
@@ -1002,45 +1643,92 @@ public class Customer extends Agent {
             return minimalQuantity - totalDemand;
         }
 
+        /**
+         * States are stored in the purchase log by ordinal, new states go to the end.
+         */
         private enum PurchaseState {
-            NONE, OPEN, CLOSED
+            NONE, OPEN, CLOSED, CONFIRMED
         }
 
         public boolean isOpen() {
             return purchaseState == PurchaseState.OPEN;
         }
 
+        public boolean isClosed() {
+            return purchaseState == PurchaseState.CLOSED;
+        }
+
+        /**
+         * @return <tt>true</tt>, if buyers got the confirmation and wait for delivery.
+         */
+        public boolean isConfirmed() {
+            return purchaseState == PurchaseState.CONFIRMED;
+        }
+
         public void open() {
-            purchaseState = PurchaseState.OPEN;
+            setState(PurchaseState.OPEN);
+            Journal.purchaseOpened(customer.getLocalName(), purchaseConvId);
+        }
+
+        public void confirm() {
+            setState(PurchaseState.CONFIRMED);
+        }
+
+        /**
+         * The lot is over, it is not restored any more.
+         */
+        public void settle() {
+            log.purchaseSettled(purchaseConvId);
+        }
+
+        public void orderConfirmed(AID supplier) {
+            confirmedSuppliers.add(supplier);
+            log.orderConfirmed(purchaseConvId, supplier.getName());
+        }
+
+        public Set<AID> getConfirmedSuppliers() {
+            return confirmedSuppliers;
+        }
+
+        void restoreState(int ordinal) {
+            if (ordinal >= 0 && ordinal < PurchaseState.values().length) {
+                purchaseState = PurchaseState.values()[ordinal];
+            }
+        }
+
+        private void setState(PurchaseState state) {
+            purchaseState = state;
+            log.stateChanged(purchaseConvId, state.ordinal());
         }
 
         public void close() {
-            purchaseState = PurchaseState.CLOSED;
+            setState(PurchaseState.CLOSED);
+            if (Journal.isEnabled()) {
+                Journal.purchaseClosed(customer.getLocalName(), purchaseConvId, isFormed() ? 1 : 0, getBuyers().size());
+            }
         }
 
+        /**
+         * Demand of buyers for one good. Total demand is maintained on every change.
+         */
         private class DemandTable {
             Map<AID, Integer> demand = new HashMap<>();
+            private int total = 0;
 
             public DemandTable() {
             }
 
             public DemandTable(AID buyer, int count) {
-                demand.put(buyer, count);
+                put(buyer, count);
             }
 
             public void put(AID buyer, int count) {
-                demand.put(buyer, count);
+                final Integer previous = demand.put(buyer, count);
+                total += count - (previous == null ? 0 : previous);
             }
 
             public int getTotal() {
-                final int[] totalDemand = {0};
-                demand.forEach(new BiConsumer<AID, Integer>() {
-                    @Override
-                    public void accept(AID buyer, Integer count) {
-                        totalDemand[0] += count;
-                    }
-                });
-                return totalDemand[0];
+                return total;
             }
 
             public Set<AID> getBuyers() {
@@ -1052,7 +1740,11 @@ public class Customer extends Agent {
             }
 
             public Integer remove(AID buyer) {
-                return demand.remove(buyer);
+                final Integer count = demand.remove(buyer);
+                if (count != null) {
+                    total -= count;
+                }
+                return count;
             }
         }
     }
@@ -0,0 +1,76 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.Agent;
+import jade.core.behaviours.Behaviour;
+import jade.core.behaviours.CyclicBehaviour;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Restart blocked behaviours of the agent when their deadlines pass.
+ * All deadlines of the agent share one timer, the earliest deadline.
+ * Behaviours wait with <tt>block()</tt> and are restarted either by a message or by the deadline.
+ */
+class DeadlineScheduler extends CyclicBehaviour {
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+    // The current deadline of each behaviour, other queued deadlines are stale.
+    private final Map<Behaviour, Deadline> scheduled = new HashMap<>();
+
+    public DeadlineScheduler(Agent a) {
+        super(a);
+    }
+
+    /**
+     * Restart the behaviour at the time. Replace previous deadline of the behaviour.
+     */
+    public void schedule(Behaviour behaviour, long time) {
+        final Deadline deadline = new Deadline(behaviour, time);
+        scheduled.put(behaviour, deadline);
+        deadlines.add(deadline);
+        if (deadlines.peek() == deadline) {
+            // Timer must be set to the new earliest deadline.
+            restart();
+        }
+    }
+
+    public void cancel(Behaviour behaviour) {
+        scheduled.remove(behaviour);
+    }
+
+    @Override
+    public void action() {
+        final long now = System.currentTimeMillis();
+        Deadline deadline;
+        while ((deadline = deadlines.peek()) != null) {
+            if (scheduled.get(deadline.behaviour) != deadline) {
+                deadlines.poll();
+                continue;
+            }
+            if (deadline.time > now) {
+                block(deadline.time - now);
+                return;
+            }
+            deadlines.poll();
+            scheduled.remove(deadline.behaviour);
+            deadline.behaviour.restart();
+        }
+        block();
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        private final Behaviour behaviour;
+        private final long time;
+
+        public Deadline(Behaviour behaviour, long time) {
+            this.behaviour = behaviour;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return Long.compare(time, other.time);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.behaviours.Behaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Queue of messages routed by {@link MessageDispatcher} to one behaviour.
+ * Open with {@link PurchasingAgent#openMailbox} and close when the behaviour ends,
+ * messages left in closed mailbox are routed again.
+ */
+public class Mailbox {
+    private final Behaviour owner;
+    private final String conversationId;
+    private final MessageTemplate template;
+    private final ArrayDeque<ACLMessage> messages = new ArrayDeque<>();
+
+    /**
+     * @param conversationId conversation of messages, <tt>null</tt> for any conversation.
+     * @param template       additional filter of messages, <tt>null</tt> for any message.
+     */
+    Mailbox(Behaviour owner, String conversationId, MessageTemplate template) {
+        this.owner = owner;
+        this.conversationId = conversationId;
+        this.template = template;
+    }
+
+    String getConversationId() {
+        return conversationId;
+    }
+
+    boolean accepts(ACLMessage message) {
+        return template == null || template.match(message);
+    }
+
+    void put(ACLMessage message) {
+        messages.add(message);
+        owner.restart();
+    }
+
+    ArrayDeque<ACLMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the first message or <tt>null</tt>.
+     */
+    public ACLMessage receive() {
+        return messages.poll();
+    }
+
+    /**
+     * @return the first message matching the template or <tt>null</tt>.
+     */
+    public ACLMessage receive(MessageTemplate messageTemplate) {
+        final Iterator<ACLMessage> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            final ACLMessage message = iterator.next();
+            if (messageTemplate.match(message)) {
+                iterator.remove();
+                return message;
+            }
+        }
+        return null;
+    }
+}
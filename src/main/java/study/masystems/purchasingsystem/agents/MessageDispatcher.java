@@ -0,0 +1,153 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.AID;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.util.Logger;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.metrics.Metrics;
+
+import java.util.*;
+
+/**
+ * Take each incoming message from the agent queue once and route it by conversation id
+ * to the mailbox of the behaviour waiting for it. Messages without open mailbox are kept
+ * until a mailbox for them is opened.
+ * Messages of DFs are left in the agent queue for DF subscriptions and requests.
+ */
+class MessageDispatcher extends CyclicBehaviour {
+    private static final int MAX_PENDING_CONVERSATIONS = 4096;
+    private static final int MAX_PENDING_MESSAGES = 256;
+    private static final String NO_CONVERSATION = "";
+
+    private static Logger logger = Logger.getMyLogger(MessageDispatcher.class.getName());
+
+    private final MessageTemplate dispatchedMT;
+    private final Map<String, List<Mailbox>> conversations = new HashMap<>();
+    // Mailboxes for messages of any conversation.
+    private final List<Mailbox> anyConversation = new ArrayList<>();
+    private final Map<String, ArrayDeque<ACLMessage>> pending =
+            new LinkedHashMap<String, ArrayDeque<ACLMessage>>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<ACLMessage>> eldest) {
+                    if (size() > MAX_PENDING_CONVERSATIONS) {
+                        logger.log(Logger.FINE, String.format("Drop %d messages of conversation %s",
+                                eldest.getValue().size(), eldest.getKey()));
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    public MessageDispatcher(PurchasingAgent a) {
+        super(a);
+        MessageTemplate dfMT = null;
+        for (AID df : a.getSearchedDFs()) {
+            final MessageTemplate senderMT = MessageTemplate.MatchSender(df);
+            dfMT = dfMT == null ? senderMT : MessageTemplate.or(dfMT, senderMT);
+        }
+        dispatchedMT = MessageTemplate.not(dfMT);
+    }
+
+    @Override
+    public void action() {
+        ACLMessage message = myAgent.receive(dispatchedMT);
+        if (message == null) {
+            block();
+            return;
+        }
+        while (message != null) {
+            Metrics.messageReceived(message.getPerformative());
+            Journal.messageReceived(myAgent.getLocalName(), message);
+            route(message);
+            message = myAgent.receive(dispatchedMT);
+        }
+    }
+
+    public void open(Mailbox mailbox) {
+        final String conversationId = mailbox.getConversationId();
+        if (conversationId == null) {
+            anyConversation.add(mailbox);
+            // Pending messages are few, mailboxes for any conversation are opened at setup.
+            final Iterator<ArrayDeque<ACLMessage>> conversationIterator = pending.values().iterator();
+            while (conversationIterator.hasNext()) {
+                final ArrayDeque<ACLMessage> messages = conversationIterator.next();
+                deliverPending(messages, mailbox);
+                if (messages.isEmpty()) {
+                    conversationIterator.remove();
+                }
+            }
+        } else {
+            conversations.computeIfAbsent(conversationId, key -> new ArrayList<>(2)).add(mailbox);
+            final ArrayDeque<ACLMessage> messages = pending.get(conversationId);
+            if (messages != null) {
+                deliverPending(messages, mailbox);
+                if (messages.isEmpty()) {
+                    pending.remove(conversationId);
+                }
+            }
+        }
+    }
+
+    public void close(Mailbox mailbox) {
+        final String conversationId = mailbox.getConversationId();
+        if (conversationId == null) {
+            anyConversation.remove(mailbox);
+        } else {
+            final List<Mailbox> mailboxes = conversations.get(conversationId);
+            if (mailboxes != null) {
+                mailboxes.remove(mailbox);
+                if (mailboxes.isEmpty()) {
+                    conversations.remove(conversationId);
+                }
+            }
+        }
+        // Messages, which were not received, may be expected by other behaviours.
+        ACLMessage message;
+        while ((message = mailbox.getMessages().poll()) != null) {
+            route(message);
+        }
+    }
+
+    private void route(ACLMessage message) {
+        final String conversationId = message.getConversationId();
+        if (conversationId != null && deliver(conversations.get(conversationId), message)) {
+            return;
+        }
+        if (deliver(anyConversation, message)) {
+            return;
+        }
+
+        final ArrayDeque<ACLMessage> messages = pending.computeIfAbsent(
+                conversationId == null ? NO_CONVERSATION : conversationId, key -> new ArrayDeque<>());
+        if (messages.size() == MAX_PENDING_MESSAGES) {
+            messages.poll();
+        }
+        messages.add(message);
+    }
+
+    private static boolean deliver(List<Mailbox> mailboxes, ACLMessage message) {
+        if (mailboxes == null) {
+            return false;
+        }
+        for (Mailbox mailbox : mailboxes) {
+            if (mailbox.accepts(message)) {
+                mailbox.put(message);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void deliverPending(ArrayDeque<ACLMessage> messages, Mailbox mailbox) {
+        final Iterator<ACLMessage> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            final ACLMessage message = iterator.next();
+            if (mailbox.accepts(message)) {
+                iterator.remove();
+                mailbox.put(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package study.masystems.purchasingsystem.agents;
+
+import java.util.Arrays;
+
+/**
+ * Choice of sellers for goods: purchases joined by a buyer, suppliers ordered by a customer.
+ * Every good is bought from one seller, the cost of the choice is the cost of goods plus the fixed cost
+ * of each chosen seller, such as negotiation overhead and the route detour.
+ * Small sets of goods are solved exactly by dynamic programming over subsets of goods,
+ * larger sets start from the cheapest purchase of each good and drop purchases while the cost decreases.
+ */
+class PurchaseSelector {
+    /**
+     * Maximal count of goods solved exactly, time of the exact solution is up to customers * 3^goods.
+     */
+    static final int EXACT_GOODS_LIMIT = 10;
+
+    private final int goodsCount;
+    private final int customersCount;
+    // Cost of the good in the purchase of the customer, infinity if there is no proposal.
+    private final double[][] costs;
+    private final double[] fixedCosts;
+
+    /**
+     * @param costs      costs of goods indexed by customer and good, <tt>Double.POSITIVE_INFINITY</tt>
+     *                   if the customer has no proposal for the good.
+     * @param fixedCosts cost of joining the purchase of each customer.
+     */
+    PurchaseSelector(double[][] costs, double[] fixedCosts) {
+        this.customersCount = costs.length;
+        this.goodsCount = customersCount == 0 ? 0 : costs[0].length;
+        this.costs = costs;
+        this.fixedCosts = fixedCosts;
+    }
+
+    /**
+     * @return customer index for each good, -1 for goods without proposals.
+     */
+    int[] select() {
+        final int[] choice = new int[goodsCount];
+        Arrays.fill(choice, -1);
+        // Goods with proposals.
+        final int[] goods = new int[goodsCount];
+        int count = 0;
+        for (int good = 0; good < goodsCount; good++) {
+            for (int customer = 0; customer < customersCount; customer++) {
+                if (costs[customer][good] < Double.POSITIVE_INFINITY) {
+                    goods[count++] = good;
+                    break;
+                }
+            }
+        }
+        if (count == 0) {
+            return choice;
+        }
+        if (count <= EXACT_GOODS_LIMIT) {
+            selectExact(Arrays.copyOf(goods, count), choice);
+        } else {
+            selectGreedy(Arrays.copyOf(goods, count), choice);
+        }
+        return choice;
+    }
+
+    /**
+     * @return cost of goods and joined purchases of the choice.
+     */
+    double cost(int[] choice) {
+        final boolean[] joined = new boolean[customersCount];
+        double total = 0;
+        for (int good = 0; good < choice.length; good++) {
+            final int customer = choice[good];
+            if (customer < 0) {
+                continue;
+            }
+            total += costs[customer][good];
+            if (!joined[customer]) {
+                joined[customer] = true;
+                total += fixedCosts[customer];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Cover goods by purchases: best[mask] is the cheapest cover of goods in the mask.
+     * The lowest uncovered good is covered first, so each cover is built once.
+     */
+    private void selectExact(int[] goods, int[] choice) {
+        final int n = goods.length;
+        final int full = (1 << n) - 1;
+        final int[] offered = new int[customersCount];
+        final double[][] subsetCosts = new double[customersCount][];
+        for (int customer = 0; customer < customersCount; customer++) {
+            for (int i = 0; i < n; i++) {
+                if (costs[customer][goods[i]] < Double.POSITIVE_INFINITY) {
+                    offered[customer] |= 1 << i;
+                }
+            }
+            if (offered[customer] != 0) {
+                // Costs of subsets of goods, the lowest good is added to the subset without it.
+                final double[] subsetCost = new double[1 << n];
+                for (int subset = 1; subset <= full; subset++) {
+                    if ((subset & ~offered[customer]) == 0) {
+                        final int low = Integer.numberOfTrailingZeros(subset);
+                        subsetCost[subset] = subsetCost[subset & (subset - 1)] + costs[customer][goods[low]];
+                    }
+                }
+                subsetCosts[customer] = subsetCost;
+            }
+        }
+
+        final double[] best = new double[full + 1];
+        final int[] lastCustomer = new int[full + 1];
+        final int[] lastSubset = new int[full + 1];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        best[0] = 0;
+        for (int mask = 0; mask < full; mask++) {
+            if (best[mask] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            final int lowest = Integer.lowestOneBit(~mask & full);
+            for (int customer = 0; customer < customersCount; customer++) {
+                if ((offered[customer] & lowest) == 0) {
+                    continue;
+                }
+                final int free = offered[customer] & ~mask & ~lowest;
+                // Subsets of free goods, each with the lowest uncovered good.
+                int rest = free;
+                while (true) {
+                    final int subset = rest | lowest;
+                    final double cost = best[mask] + fixedCosts[customer] + subsetCosts[customer][subset];
+                    if (cost < best[mask | subset]) {
+                        best[mask | subset] = cost;
+                        lastCustomer[mask | subset] = customer;
+                        lastSubset[mask | subset] = subset;
+                    }
+                    if (rest == 0) {
+                        break;
+                    }
+                    rest = (rest - 1) & free;
+                }
+            }
+        }
+
+        for (int mask = full; mask != 0; mask &= ~lastSubset[mask]) {
+            final int subset = lastSubset[mask];
+            for (int i = 0; i < n; i++) {
+                if ((subset & (1 << i)) != 0) {
+                    choice[goods[i]] = lastCustomer[mask];
+                }
+            }
+        }
+    }
+
+    /**
+     * Join the cheapest purchase of each good, then drop the purchase, which saves the most,
+     * while dropping saves anything.
+     */
+    private void selectGreedy(int[] goods, int[] choice) {
+        final boolean[] joined = new boolean[customersCount];
+        for (int good : goods) {
+            choice[good] = cheapest(good, joined, -1, false);
+            joined[choice[good]] = true;
+        }
+        while (true) {
+            int dropped = -1;
+            double bestSaving = 0;
+            for (int customer = 0; customer < customersCount; customer++) {
+                if (!joined[customer]) {
+                    continue;
+                }
+                double saving = fixedCosts[customer];
+                for (int good : goods) {
+                    if (choice[good] != customer) {
+                        continue;
+                    }
+                    final int other = cheapest(good, joined, customer, true);
+                    if (other < 0) {
+                        saving = Double.NEGATIVE_INFINITY;
+                        break;
+                    }
+                    saving -= costs[other][good] - costs[customer][good];
+                }
+                if (saving > bestSaving) {
+                    bestSaving = saving;
+                    dropped = customer;
+                }
+            }
+            if (dropped < 0) {
+                return;
+            }
+            joined[dropped] = false;
+            for (int good : goods) {
+                if (choice[good] == dropped) {
+                    choice[good] = cheapest(good, joined, dropped, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param onlyJoined choose among joined purchases only.
+     * @return the cheapest purchase of the good except the excluded one, -1 if there is none.
+     */
+    private int cheapest(int good, boolean[] joined, int excluded, boolean onlyJoined) {
+        int cheapest = -1;
+        for (int customer = 0; customer < customersCount; customer++) {
+            if (customer == excluded || (onlyJoined && !joined[customer])
+                    || costs[customer][good] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            if (cheapest < 0 || costs[customer][good] < costs[cheapest][good]) {
+                cheapest = customer;
+            }
+        }
+        return cheapest;
+    }
+}
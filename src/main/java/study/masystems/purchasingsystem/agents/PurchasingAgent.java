@@ -0,0 +1,146 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.Behaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.util.leap.Iterator;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.metrics.Metrics;
+import study.masystems.purchasingsystem.simulation.Region;
+import study.masystems.purchasingsystem.simulation.SimulationStats;
+import study.masystems.purchasingsystem.simulation.StartBarrier;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of purchasing system agents.
+ * All outgoing messages of agents pass through {@link #sendMessage(ACLMessage)}.
+ */
+public abstract class PurchasingAgent extends Agent {
+    private DeadlineScheduler deadlineScheduler;
+    private MessageDispatcher messageDispatcher;
+    private final TimeoutPolicy timeoutPolicy = new TimeoutPolicy();
+
+    /**
+     * Wait until the whole population is started, if the agent was started with a {@link StartBarrier}.
+     */
+    protected void awaitStart() {
+        final StartBarrier barrier = StartBarrier.find(getArguments());
+        if (barrier != null) {
+            barrier.arriveAndAwait();
+        }
+    }
+
+    /**
+     * DF of the agent region, if the agent was started with a {@link Region}, the platform default DF otherwise.
+     * All DF registrations of the agent go there.
+     */
+    @Override
+    public AID getDefaultDF() {
+        final Region region = Region.find(getArguments());
+        return region != null ? region.getDF() : super.getDefaultDF();
+    }
+
+    /**
+     * @return DFs where the agent looks for counterparts: the default DF and DFs of other regions.
+     */
+    protected List<AID> getSearchedDFs() {
+        final Region region = Region.find(getArguments());
+        return region != null ? region.getSearchedDFs() : Collections.singletonList(super.getDefaultDF());
+    }
+
+    protected void sendMessage(ACLMessage message) {
+        int receivers = 0;
+        AID receiver = null;
+        final Iterator allReceiver = message.getAllReceiver();
+        while (allReceiver.hasNext()) {
+            final Object next = allReceiver.next();
+            if (receiver == null) {
+                receiver = (AID) next;
+            }
+            receivers++;
+        }
+        SimulationStats.messagesSent(receivers);
+        Metrics.messageSent(message.getPerformative(), receivers);
+        Journal.messageSent(getLocalName(), message, receiver, receivers);
+        send(message);
+    }
+
+    /**
+     * Receive the message from the agent queue, for agents without mailboxes.
+     */
+    protected ACLMessage receiveMessage(MessageTemplate template) {
+        final ACLMessage message = receive(template);
+        if (message != null) {
+            Metrics.messageReceived(message.getPerformative());
+            Journal.messageReceived(getLocalName(), message);
+        }
+        return message;
+    }
+
+    /**
+     * Drain up to <tt>max</tt> messages from the agent queue, for agents without mailboxes.
+     *
+     * @param batch list to add received messages to.
+     * @return count of received messages.
+     */
+    protected int receiveMessages(MessageTemplate template, int max, List<ACLMessage> batch) {
+        int received = 0;
+        ACLMessage message;
+        while (received < max && (message = receiveMessage(template)) != null) {
+            batch.add(message);
+            received++;
+        }
+        return received;
+    }
+
+    /**
+     * Reply timeouts adapted to round trip times of counterparts of this agent.
+     */
+    protected TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    /**
+     * Open mailbox of the behaviour. Once the first mailbox is opened, all messages except DF ones
+     * are routed to mailboxes, so the agent must not receive messages from its queue directly.
+     *
+     * @param conversationId conversation of messages, <tt>null</tt> for any conversation.
+     * @param template       additional filter of messages, <tt>null</tt> for any message.
+     */
+    protected Mailbox openMailbox(Behaviour owner, String conversationId, MessageTemplate template) {
+        if (messageDispatcher == null) {
+            messageDispatcher = new MessageDispatcher(this);
+            addBehaviour(messageDispatcher);
+        }
+        final Mailbox mailbox = new Mailbox(owner, conversationId, template);
+        messageDispatcher.open(mailbox);
+        return mailbox;
+    }
+
+    protected void closeMailbox(Mailbox mailbox) {
+        if (mailbox != null && messageDispatcher != null) {
+            messageDispatcher.close(mailbox);
+        }
+    }
+
+    /**
+     * Restart the behaviour at the time, behaviour waits for the deadline with <tt>block()</tt>.
+     */
+    protected void wakeUpAt(Behaviour behaviour, long time) {
+        if (deadlineScheduler == null) {
+            deadlineScheduler = new DeadlineScheduler(this);
+            addBehaviour(deadlineScheduler);
+        }
+        deadlineScheduler.schedule(behaviour, time);
+    }
+
+    protected void cancelWakeUp(Behaviour behaviour) {
+        if (deadlineScheduler != null) {
+            deadlineScheduler.cancel(behaviour);
+        }
+    }
+}
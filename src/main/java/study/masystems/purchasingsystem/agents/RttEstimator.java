@@ -0,0 +1,49 @@
+package study.masystems.purchasingsystem.agents;
+
+/**
+ * Smoothed round trip time and its variation, retransmission timeout as in TCP (RFC 6298).
+ */
+class RttEstimator {
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int K = 4;
+    private static final double GRANULARITY_MS = 1;
+
+    private double smoothedRtt = -1;
+    private double rttVariation;
+    private double backoff = 1;
+
+    public boolean hasSamples() {
+        return smoothedRtt >= 0;
+    }
+
+    public void sample(double rttMillis) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rttMillis;
+            rttVariation = rttMillis / 2;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rttMillis);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rttMillis;
+        }
+        backoff = 1;
+    }
+
+    /**
+     * Double the timeout until the next sample.
+     */
+    public void timedOut() {
+        backoff = Math.min(backoff * 2, 64);
+    }
+
+    /**
+     * @param initial timeout before the first sample.
+     */
+    public double getTimeout(double initial) {
+        final double timeout = smoothedRtt < 0 ? initial : smoothedRtt + Math.max(GRANULARITY_MS, K * rttVariation);
+        return timeout * backoff;
+    }
+
+    public double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+}
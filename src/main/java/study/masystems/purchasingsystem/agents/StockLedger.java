@@ -0,0 +1,189 @@
+package study.masystems.purchasingsystem.agents;
+
+import study.masystems.purchasingsystem.GoodInformation;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stock of supplier goods indexed by good identifier.
+ * Proposals reserve the minimal quantity of goods until the expiration. An order takes the reserved
+ * quantities of its goods and the rest of the quantity from the stock, reserved goods out of the order
+ * stay reserved for other orders against the same proposal.
+ * Available quantities are atomic counters, so reservations and orders may be processed
+ * from several threads without a lock.
+ */
+public class StockLedger {
+    public static final long NO_RESERVATION = 0;
+
+    private final GoodInformation[] goodTable;
+    private final AtomicIntegerArray available;
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong nextReservation = new AtomicLong(NO_RESERVATION);
+
+    /**
+     * @param goodTable goods indexed by good identifier, initial quantities are their stocks.
+     */
+    public StockLedger(GoodInformation[] goodTable) {
+        this.goodTable = goodTable;
+        this.available = new AtomicIntegerArray(goodTable.length);
+        for (int good = 0; good < goodTable.length; good++) {
+            if (goodTable[good] != null) {
+                available.set(good, goodTable[good].getStock());
+            }
+        }
+    }
+
+    /**
+     * @return quantity of the good, which is neither reserved nor sold.
+     */
+    public int getAvailable(int good) {
+        return good >= 0 && good < available.length() ? available.get(good) : 0;
+    }
+
+    public int getReservationsCount() {
+        return reservations.size();
+    }
+
+    /**
+     * @return <tt>true</tt>, if the reservation still holds goods.
+     */
+    public boolean isReserved(long reservation) {
+        return reservations.containsKey(reservation);
+    }
+
+    /**
+     * Reserve the minimal quantity of each good. Goods without enough stock are cleared from the set.
+     *
+     * @param expiresAt expiration time in milliseconds.
+     * @return reservation identifier, {@link #NO_RESERVATION} if nothing is reserved.
+     */
+    public long reserve(BitSet goods, long expiresAt) {
+        final int[] quantities = new int[goods.length()];
+        for (int good = goods.nextSetBit(0); good >= 0; good = goods.nextSetBit(good + 1)) {
+            final int quantity = goodTable[good].getMinimalQuantity();
+            if (take(good, quantity)) {
+                quantities[good] = quantity;
+            } else {
+                goods.clear(good);
+            }
+        }
+        if (goods.isEmpty()) {
+            return NO_RESERVATION;
+        }
+        final long id = nextReservation.incrementAndGet();
+        reservations.put(id, new Reservation(quantities, expiresAt));
+        return id;
+    }
+
+    /**
+     * Sell goods of the order. Reserved quantities are used first, reserved quantities of the ordered goods
+     * above the order are returned to the stock, reserved goods out of the order stay reserved.
+     * Nothing is sold if the stock is not enough for the whole order.
+     *
+     * @param reservation reservation of the order, {@link #NO_RESERVATION} or expired reservation
+     *                    take the whole order from the stock.
+     * @return <tt>true</tt>, if the order is sold.
+     */
+    public boolean commit(long reservation, int[] goods, int[] quantities) {
+        Reservation reserved = reservations.remove(reservation);
+        if (reserved != null && reserved.expiresAt < System.currentTimeMillis()) {
+            reserved.release();
+            reserved = null;
+        }
+        final int[] held = reserved == null ? new int[0] : reserved.quantities;
+        for (int i = 0; i < goods.length; i++) {
+            final int need = quantities[i] - heldQuantity(held, goods[i]);
+            if (need > 0 && !take(goods[i], need)) {
+                // Roll back taken goods, the reservation is kept until the expiration.
+                for (int j = 0; j < i; j++) {
+                    put(goods[j], quantities[j] - heldQuantity(held, goods[j]));
+                }
+                if (reserved != null) {
+                    reservations.put(reservation, reserved);
+                }
+                return false;
+            }
+        }
+        // Return reserved quantities above the order, keep reserved goods out of the order.
+        final int[] rest = held.clone();
+        for (int i = 0; i < goods.length; i++) {
+            if (goods[i] < rest.length) {
+                put(goods[i], rest[goods[i]] - quantities[i]);
+                rest[goods[i]] = 0;
+            }
+        }
+        for (int good = 0; good < rest.length; good++) {
+            if (rest[good] > 0) {
+                reservations.put(reservation, new Reservation(rest, reserved.expiresAt));
+                break;
+            }
+        }
+        return true;
+    }
+
+    public void release(long reservation) {
+        final Reservation reserved = reservations.remove(reservation);
+        if (reserved != null) {
+            reserved.release();
+        }
+    }
+
+    /**
+     * Return goods of expired reservations to the stock.
+     *
+     * @return count of expired reservations.
+     */
+    public int expire(long now) {
+        int expired = 0;
+        for (Map.Entry<Long, Reservation> entry : reservations.entrySet()) {
+            final Reservation reserved = entry.getValue();
+            if (reserved.expiresAt < now && reservations.remove(entry.getKey(), reserved)) {
+                reserved.release();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    private static int heldQuantity(int[] held, int good) {
+        return good < held.length ? held[good] : 0;
+    }
+
+    private boolean take(int good, int quantity) {
+        int current;
+        do {
+            current = available.get(good);
+            if (current < quantity) {
+                return false;
+            }
+        } while (!available.compareAndSet(good, current, current - quantity));
+        return true;
+    }
+
+    private void put(int good, int quantity) {
+        if (quantity > 0) {
+            available.getAndAdd(good, quantity);
+        }
+    }
+
+    private class Reservation {
+        // Reserved quantities indexed by good identifier.
+        final int[] quantities;
+        final long expiresAt;
+
+        Reservation(int[] quantities, long expiresAt) {
+            this.quantities = quantities;
+            this.expiresAt = expiresAt;
+        }
+
+        void release() {
+            for (int good = 0; good < quantities.length; good++) {
+                put(good, quantities[good]);
+            }
+        }
+    }
+}
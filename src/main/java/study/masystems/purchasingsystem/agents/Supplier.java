@@ -1,9 +1,8 @@
 package study.masystems.purchasingsystem.agents;
 
-import flexjson.JSONDeserializer;
-import flexjson.JSONSerializer;
-import jade.core.Agent;
+import jade.core.AID;
 import jade.core.behaviours.CyclicBehaviour;
+import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
@@ -11,23 +10,45 @@ import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
 import jade.util.Logger;
+import study.masystems.purchasingsystem.GoodCatalog;
 import study.masystems.purchasingsystem.GoodInformation;
-import study.masystems.purchasingsystem.GoodNeed;
 import study.masystems.purchasingsystem.PurchaseProposal;
+import study.masystems.purchasingsystem.codec.ContentCodec;
+import study.masystems.purchasingsystem.codec.ContentCodecs;
 import study.masystems.purchasingsystem.utils.DataGenerator;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.logging.Level;
 
 /**
  * Product supplier.
  */
-public class Supplier extends Agent {
-    private JSONSerializer jsonSerializer = new JSONSerializer();
-    private JSONDeserializer<Map<String, GoodNeed>> customerProposeDeserializer = new JSONDeserializer<>();
-    private JSONDeserializer<Map<String, Integer>> orderDeserializer = new JSONDeserializer<>();
+public class Supplier extends PurchasingAgent {
     private HashMap<String, GoodInformation> goods;
+    // Goods catalog indexed by good identifier.
+    private GoodInformation[] goodTable = new GoodInformation[0];
+    private final ProposalReplyCache replyCache = new ProposalReplyCache(REPLY_CACHE_CAPACITY);
+    private StockLedger stock = new StockLedger(goodTable);
+    // The latest reservation of each customer, a new CFP of the customer releases the previous one.
+    private final Map<AID, Long> customerReservations = new HashMap<>();
+
+    /**
+     * Proposal, order and rejection parameter with the reservation of proposed goods.
+     * All lots of a customer order against the same reservation until the customer rejects it.
+     */
+    public static final String RESERVATION_PARAMETER = "reservation";
+    public static final String RESERVATION_TIMEOUT_PROPERTY = "purchasingsystem.reservation.timeout";
+
+    /**
+     * Maximal count of messages handled per scheduling of a supplier behaviour, 1 handles messages one by one.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "purchasingsystem.supplier.batch";
+
+    private static final int REPLY_CACHE_CAPACITY = 1024;
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, 64));
+    private static final long RESERVATION_TIMEOUT_MS = Long.getLong(RESERVATION_TIMEOUT_PROPERTY, 30000);
+    private static final long RESERVATION_EXPIRATION_PERIOD_MS = 1000;
 
     private static Logger logger = Logger.getMyLogger(Supplier.class.getName());
 
@@ -35,12 +56,46 @@ public class Supplier extends Agent {
         return goods;
     }
 
+    /**
+     * Replace goods catalog. Catalog must be changed only through this method,
+     * otherwise cached proposals become stale. Stock is reset, reservations are dropped.
+     */
     public void setGoods(HashMap<String, GoodInformation> goods) {
         this.goods = goods;
+        this.goodTable = buildGoodTable(goods);
+        this.stock = new StockLedger(goodTable);
+        customerReservations.clear();
+        replyCache.invalidate();
+    }
+
+    public StockLedger getStock() {
+        return stock;
+    }
+
+    private static GoodInformation[] buildGoodTable(Map<String, GoodInformation> goods) {
+        GoodInformation[] table = new GoodInformation[0];
+        for (Map.Entry<String, GoodInformation> entry : goods.entrySet()) {
+            final int good = GoodCatalog.intern(entry.getKey());
+            if (good >= table.length) {
+                table = Arrays.copyOf(table, good + 1);
+            }
+            table[good] = entry.getValue();
+        }
+        return table;
+    }
+
+    /**
+     * @return information about the good, <tt>null</tt> if the good is not supplied.
+     */
+    private GoodInformation getGoodInformation(int good) {
+        final GoodInformation[] table = goodTable;
+        return (good >= 0 && good < table.length) ? table[good] : null;
     }
 
     @Override
     protected void setup() {
+        awaitStart();
+
         //Check whether an agent was read from file or created manually
         //If read, then parse args.
         Object[] args = getArguments();
@@ -56,6 +111,8 @@ public class Supplier extends Agent {
                 goods = DataGenerator.getRandomGoodsTable();
             }
         }
+        goodTable = buildGoodTable(goods);
+        stock = new StockLedger(goodTable);
 
         // Register the supplier service in the yellow pages
         DFAgentDescription dfd = new DFAgentDescription();
@@ -74,74 +131,272 @@ public class Supplier extends Agent {
         // Add the behaviour serving queries from customer agents
         addBehaviour(new OfferRequestsServer());
         addBehaviour(new HandleOrdersBehaviour());
+        addBehaviour(new RejectedProposalsServer());
+        addBehaviour(new ExpireReservations(RESERVATION_EXPIRATION_PERIOD_MS));
     }
 
+    /**
+     * Reply to CFPs of customers. Pending CFPs are drained in batches of up to {@link #BATCH_SIZE},
+     * identical requests are decoded once and each set of proposed goods is encoded once per batch.
+     */
     private class OfferRequestsServer extends CyclicBehaviour {
+        private final MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.CFP);
+        private final List<ACLMessage> batch = new ArrayList<>();
+        private final List<ACLMessage> replies = new ArrayList<>();
+        // Supplied goods of the batch requests by codec language and content.
+        private final Map<String, Map<ByteBuffer, BitSet>> requests = new HashMap<>();
+        // Proposals of the batch by codec language and proposed goods.
+        private final Map<String, Map<BitSet, byte[]>> proposals = new HashMap<>();
+
         public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.CFP);
-            ACLMessage msg = myAgent.receive(mt);
-            if (msg != null) {
+            if (receiveMessages(mt, BATCH_SIZE, batch) == 0) {
+                block();
+                return;
+            }
+            final long expiresAt = System.currentTimeMillis() + RESERVATION_TIMEOUT_MS;
+            for (ACLMessage msg : batch) {
                 // CFP Message received. Process it
-                Map<String, GoodNeed> goodsRequest = customerProposeDeserializer.use("values", GoodNeed.class).deserialize(msg.getContent());
-                ACLMessage reply = msg.createReply();
-                HashMap<String, PurchaseProposal> requestedGoods = new HashMap<>();
-
-                for (Map.Entry<String, GoodNeed> good : goodsRequest.entrySet()){
-                    String goodName = good.getKey();
-                    if (goods.containsKey(goodName)) {
-                        requestedGoods.put(goodName, new PurchaseProposal(myAgent.getAID(), goods.get(goodName)));
-                    }
+                final ContentCodec codec = ContentCodecs.forMessage(msg);
+                final BitSet availableGoods = (BitSet) suppliedGoods(codec, codec.read(msg)).clone();
+                // The customer orders against its latest proposal only.
+                releaseReservation(msg.getSender());
+                // Goods out of stock are not proposed.
+                final long reservation = stock.reserve(availableGoods, expiresAt);
+                if (reservation != StockLedger.NO_RESERVATION) {
+                    customerReservations.put(msg.getSender(), reservation);
                 }
 
-                if (requestedGoods.size() != 0) {
+                ACLMessage reply = msg.createReply();
+                if (!availableGoods.isEmpty()) {
                     // The requested goods are available for sale. Reply with the info
                     reply.setPerformative(ACLMessage.PROPOSE);
-                    reply.setContent(jsonSerializer.exclude("*.class").serialize(requestedGoods));
+                    reply.addUserDefinedParameter(RESERVATION_PARAMETER, Long.toString(reservation));
+                    codec.write(reply, proposal(codec, availableGoods));
                 } else {
                     // The requested book is NOT available for sale.
                     reply.setPerformative(ACLMessage.REFUSE);
                     reply.setContent("not-available");
                 }
-                myAgent.send(reply);
+                replies.add(reply);
             }
-            else {
-                block();
+            replies.forEach(Supplier.this::sendMessage);
+            batch.clear();
+            replies.clear();
+            requests.clear();
+            proposals.clear();
+        }
+
+        private BitSet suppliedGoods(ContentCodec codec, byte[] content) {
+            return requests.computeIfAbsent(codec.getLanguage(), key -> new HashMap<>())
+                    .computeIfAbsent(ByteBuffer.wrap(content), key -> {
+                        BitSet goods = new BitSet();
+                        for (String goodName : codec.decodeGoodNeeds(content).keySet()) {
+                            final int good = GoodCatalog.idOf(goodName);
+                            if (getGoodInformation(good) != null) {
+                                goods.set(good);
+                            }
+                        }
+                        return goods;
+                    });
+        }
+
+        private byte[] proposal(ContentCodec codec, BitSet goods) {
+            final Map<BitSet, byte[]> codecProposals =
+                    proposals.computeIfAbsent(codec.getLanguage(), key -> new HashMap<>());
+            byte[] content = codecProposals.get(goods);
+            if (content != null) {
+                return content;
             }
+            final long generation = replyCache.getGeneration();
+            content = replyCache.get(codec, goods);
+            if (content == null) {
+                HashMap<String, PurchaseProposal> requestedGoods = new HashMap<>();
+                goods.stream().forEach(good -> requestedGoods.put(GoodCatalog.nameOf(good),
+                        new PurchaseProposal(myAgent.getAID(), getGoodInformation(good))));
+                content = codec.encodeProposals(requestedGoods);
+                replyCache.put(codec, goods, content, generation);
+            }
+            codecProposals.put(goods, content);
+            return content;
         }
     }
 
+    /**
+     * Confirm orders of customers, which are complete and in stock. Orders are drained in batches
+     * of up to {@link #BATCH_SIZE}.
+     */
     private class HandleOrdersBehaviour extends CyclicBehaviour {
-        private MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL);
+        private final MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.ACCEPT_PROPOSAL);
+        private final List<ACLMessage> batch = new ArrayList<>();
+        private final List<ACLMessage> replies = new ArrayList<>();
+
         @Override
         public void action() {
-            ACLMessage orderMessage = myAgent.receive(mt);
-            if (orderMessage != null) {
-                ACLMessage reply = orderMessage.createReply();
-                final Map<String, Integer> order = orderDeserializer.deserialize(orderMessage.getContent());
-                final boolean isComplete;
-                try {
-                    isComplete = checkGoodInformation(order);
-                    if (isComplete) {
-                        reply.setPerformative(ACLMessage.CONFIRM);
-                    } else {
-                        reply.setPerformative(ACLMessage.REFUSE);
-                        reply.setContent("not complete order");
-                    }
-                } catch (NoSuchElementException e) {
+            if (receiveMessages(mt, BATCH_SIZE, batch) == 0) {
+                block();
+                return;
+            }
+            for (ACLMessage orderMessage : batch) {
+                replies.add(handleOrder(orderMessage));
+            }
+            replies.forEach(Supplier.this::sendMessage);
+            batch.clear();
+            replies.clear();
+        }
+
+        private ACLMessage handleOrder(ACLMessage orderMessage) {
+            ACLMessage reply = orderMessage.createReply();
+            final ContentCodec codec = ContentCodecs.forMessage(orderMessage);
+            final Map<String, Integer> order = codec.decodeOrder(codec.read(orderMessage));
+            final long reservation = getReservation(orderMessage);
+            final boolean isComplete;
+            // Refused orders keep the reservation for other lots of the customer.
+            try {
+                isComplete = checkGoodInformation(order);
+                if (!isComplete) {
                     reply.setPerformative(ACLMessage.REFUSE);
-                    reply.setContent("no required goods");
+                    reply.setContent("not complete order");
+                } else if (commitOrder(reservation, order)) {
+                    reply.setPerformative(ACLMessage.CONFIRM);
+                } else {
+                    reply.setPerformative(ACLMessage.REFUSE);
+                    reply.setContent("out of stock");
                 }
-                send(reply);
-            } else {
+            } catch (NoSuchElementException e) {
+                reply.setPerformative(ACLMessage.REFUSE);
+                reply.setContent("no required goods");
+            }
+            if (!stock.isReserved(reservation)) {
+                customerReservations.remove(orderMessage.getSender(), reservation);
+            }
+            return reply;
+        }
+    }
+
+    /**
+     * Release reservations of proposals, which customers are not going to order against.
+     */
+    private class RejectedProposalsServer extends CyclicBehaviour {
+        private final MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REJECT_PROPOSAL);
+        private final List<ACLMessage> batch = new ArrayList<>();
+
+        @Override
+        public void action() {
+            if (receiveMessages(mt, BATCH_SIZE, batch) == 0) {
                 block();
+                return;
+            }
+            for (ACLMessage rejection : batch) {
+                final long reservation = getReservation(rejection);
+                // Customers release only their own reservations.
+                if (customerReservations.remove(rejection.getSender(), reservation)) {
+                    stock.release(reservation);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void releaseReservation(AID customer) {
+        final Long reservation = customerReservations.remove(customer);
+        if (reservation != null) {
+            stock.release(reservation);
+        }
+    }
+
+    /**
+     * Return goods of expired reservations to the stock.
+     */
+    private class ExpireReservations extends TickerBehaviour {
+        public ExpireReservations(long period) {
+            super(Supplier.this, period);
+        }
+
+        @Override
+        protected void onTick() {
+            final int expired = stock.expire(System.currentTimeMillis());
+            if (expired > 0) {
+                logger.log(Level.FINE, String.format("Supplier %s: %d reservations expired.", getLocalName(), expired));
+            }
+        }
+    }
+
+    private static long getReservation(ACLMessage message) {
+        final String reservation = message.getUserDefinedParameter(RESERVATION_PARAMETER);
+        if (reservation == null) {
+            return StockLedger.NO_RESERVATION;
+        }
+        try {
+            return Long.parseLong(reservation);
+        } catch (NumberFormatException e) {
+            return StockLedger.NO_RESERVATION;
+        }
+    }
+
+    private boolean commitOrder(long reservation, Map<String, Integer> order) {
+        final int[] orderGoods = new int[order.size()];
+        final int[] quantities = new int[order.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : order.entrySet()) {
+            orderGoods[i] = GoodCatalog.idOf(entry.getKey());
+            quantities[i] = entry.getValue();
+            i++;
+        }
+        return stock.commit(reservation, orderGoods, quantities);
+    }
+
+    /**
+     * Encoded proposals for sets of requested goods, separately for each codec.
+     * Customers repeat the same CFP until purchase is formed, so most requests hit the cache.
+     */
+    private static class ProposalReplyCache {
+        private final int capacity;
+        private final Map<String, Map<BitSet, byte[]>> replies = new HashMap<>();
+        private long generation = 0;
+
+        public ProposalReplyCache(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public synchronized byte[] get(ContentCodec codec, BitSet goods) {
+            final Map<BitSet, byte[]> codecReplies = replies.get(codec.getLanguage());
+            return codecReplies == null ? null : codecReplies.get(goods);
+        }
+
+        public synchronized long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Store reply, unless catalog was changed after the reply generation was taken.
+         */
+        public synchronized void put(ContentCodec codec, BitSet goods, byte[] content, long replyGeneration) {
+            if (replyGeneration != generation) {
+                return;
+            }
+            Map<BitSet, byte[]> codecReplies = replies.get(codec.getLanguage());
+            if (codecReplies == null) {
+                codecReplies = new LinkedHashMap<BitSet, byte[]>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<BitSet, byte[]> eldest) {
+                        return size() > capacity;
+                    }
+                };
+                replies.put(codec.getLanguage(), codecReplies);
             }
+            codecReplies.put(goods, content);
+        }
+
+        public synchronized void invalidate() {
+            generation++;
+            replies.clear();
         }
     }
 
     private boolean checkGoodInformation(Map<String, Integer> order) throws NoSuchElementException {
         for(Map.Entry<String, Integer> entry : order.entrySet()) {
             String good = entry.getKey();
-            GoodInformation goodInformation = goods.get(good);
+            GoodInformation goodInformation = getGoodInformation(GoodCatalog.idOf(good));
             if (goodInformation == null) {
                 throw new NoSuchElementException();
             }
@@ -1,105 +1,103 @@
 package study.masystems.purchasingsystem.agents;
 
-import flexjson.JSONDeserializer;
 import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
 import jade.util.Logger;
-import jade.wrapper.AgentContainer;
-import jade.wrapper.AgentController;
-import jade.wrapper.StaleProxyException;
-import org.jgrapht.GraphPath;
-import org.jgrapht.alg.FloydWarshallShortestPaths;
+import jade.wrapper.ContainerController;
 import org.jgrapht.graph.SimpleWeightedGraph;
-import org.json.JSONObject;
+import org.json.JSONException;
 import study.masystems.purchasingsystem.CityGraphBuilder;
-import study.masystems.purchasingsystem.GoodInformation;
-import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.GoodCatalog;
+import study.masystems.purchasingsystem.jgrapht.DistanceOracle;
 import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.metrics.Metrics;
+import study.masystems.purchasingsystem.simulation.AgentBootstrap;
+import study.masystems.purchasingsystem.simulation.AgentSpec;
+import study.masystems.purchasingsystem.simulation.PopulationReader;
+import study.masystems.purchasingsystem.utils.DataGenerator;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+/**
+ * Start agents from test data file.
+ * Arguments: test data file name in src/test/configuration, count of local containers for agents.
+ */
 public class Tester extends Agent{
     private static Logger logger = Logger.getMyLogger("Buyer");
+    private static final long METRICS_DUMP_PERIOD_SECONDS = 60;
+    private static final String JOURNAL_FILE = "purchasing.journal";
 
     @Override
     protected void setup() {
-        AgentContainer container = getContainerController();
-        String testDataFilename;
+        String testDataFilename = "testData.json";
+        int containersCount = 1;
 
-        try {
-            Object[] args = getArguments();
-            if (args == null || args.length == 0) {
-                testDataFilename = "testData.json";
-            } else {
-                testDataFilename = (String) args[0];
-            }
-
-            String filename = String.join(File.separator, ".", "src", "test", "configuration", testDataFilename);
-            Scanner fileScanner = new Scanner(new File(filename)).useDelimiter("\\Z");
-            String testData = fileScanner.next();
-            fileScanner.close();
-
-            JSONObject agents = new JSONObject(testData);
+        Object[] args = getArguments();
+        if (args != null && args.length > 0) {
+            testDataFilename = (String) args[0];
+        }
+        if (args != null && args.length > 1) {
+            containersCount = Integer.parseInt(args[1].toString());
+        }
 
-            String JSONAgentString;
-            AgentController newAgent;
+        String filename = String.join(File.separator, ".", "src", "test", "configuration", testDataFilename);
 
+        try {
+            long startTime = System.nanoTime();
             SimpleWeightedGraph<Integer, WeightedEdge> graph = new CityGraphBuilder().read();
-            FloydWarshallShortestPaths<Integer, WeightedEdge> shortestPaths
-                    = new FloydWarshallShortestPaths<>(graph);
-
-            for (String agentName : agents.keySet())
-            {
-                JSONObject JSONAgent = agents.getJSONObject(agentName);
-                String className = JSONAgent.getString("class");
+            DistanceOracle distanceOracle = new DistanceOracle(graph);
+            GoodCatalog.registerAll(DataGenerator.getGoods());
 
-                switch (className){
-                    case "study.masystems.purchasingsystem.agents.Customer":
-                        JSONAgentString = JSONAgent.getJSONObject("goodNeeds").toString();
-                        Object goodNeeds = new JSONDeserializer<Map<String, GoodNeed>>()
-                                .use("values", GoodNeed.class)
-                                .deserialize(JSONAgentString);
-                        Object money = JSONAgent.getInt("money");
-                        Integer position = JSONAgent.getInt("position");
-                        newAgent = container.createNewAgent(agentName, className, new Object[]{position, goodNeeds, money});
-                        newAgent.start();
-                        break;
-                    case "study.masystems.purchasingsystem.agents.Buyer":
-                        JSONAgentString = JSONAgent.getJSONObject("goodNeeds").toString();
-                        Object goodNeedsBuyer = new JSONDeserializer<Map<String, GoodNeed>>()
-                                .use("values", GoodNeed.class)
-                                .deserialize(JSONAgentString);
-                        Object moneyBuyer = JSONAgent.getInt("money");
-                        Integer source = JSONAgent.getInt("source");
-                        Integer target = JSONAgent.getInt("target");
-                        GraphPath<Integer, WeightedEdge> path = shortestPaths.getShortestPath(source, target);
-                        newAgent = container.createNewAgent(agentName, className,
-                                new Object[]{shortestPaths, path, goodNeedsBuyer, moneyBuyer});
-                        newAgent.start();
-                        break;
-
-                    case "study.masystems.purchasingsystem.agents.Supplier":
-                        JSONAgentString = JSONAgent.getJSONObject("goods").toString();
-                        Object goods = new JSONDeserializer<HashMap<String, GoodInformation>>()
-                                .use("values", GoodInformation.class)
-                                .deserialize(JSONAgentString);
-
-                        newAgent = container.createNewAgent(agentName, className, new Object[]{goods});
-                        newAgent.start();
-                        break;
-
-                    default:
-                        logger.log(Logger.WARNING, "Unrecognized agent class " + className);
-                }
+            List<AgentSpec> agents;
+            try (Reader reader = new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8)) {
+                agents = new PopulationReader(distanceOracle).read(reader);
             }
+            logger.log(Level.INFO, String.format("Read %d agents in %d ms", agents.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
 
+            Metrics.registerMBeans();
+            Metrics.startDump(METRICS_DUMP_PERIOD_SECONDS);
+            try {
+                Journal.start(new File(JOURNAL_FILE));
+            } catch (IOException e) {
+                logger.log(Logger.WARNING, "Journal is disabled: " + e);
+            }
+            new AgentBootstrap(createContainers(containersCount)).start(agents);
         } catch (FileNotFoundException e) {
             logger.log(Logger.WARNING, "*.json not found");
-        } catch (StaleProxyException e) {
+        } catch (IOException | JSONException e) {
             logger.log(Logger.WARNING, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tester container and additional local containers connected to the same platform.
+     */
+    private List<ContainerController> createContainers(int count) {
+        List<ContainerController> containers = new ArrayList<>();
+        containers.add(getContainerController());
+        for (int i = 1; i < count; i++) {
+            Profile profile = new ProfileImpl();
+            profile.setParameter(Profile.MAIN_HOST, getProperty(Profile.MAIN_HOST, "localhost"));
+            profile.setParameter(Profile.MAIN_PORT, getProperty(Profile.MAIN_PORT, "1099"));
+            profile.setParameter(Profile.CONTAINER_NAME, getLocalName() + "-population-" + i);
+            ContainerController container = Runtime.instance().createAgentContainer(profile);
+            if (container == null) {
+                logger.log(Logger.WARNING, "Cannot create container " + i);
+                break;
+            }
+            containers.add(container);
         }
+        return containers;
     }
 }
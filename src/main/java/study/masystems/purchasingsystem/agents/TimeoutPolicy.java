@@ -0,0 +1,95 @@
+package study.masystems.purchasingsystem.agents;
+
+import jade.core.AID;
+import study.masystems.purchasingsystem.metrics.Metrics;
+import study.masystems.purchasingsystem.metrics.Phase;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reply timeouts of negotiation phases derived from observed round trip times of each counterpart.
+ * Counterparts without samples use the estimate of the phase, phases without samples use the initial timeout.
+ * Timeouts are kept within bounds from system properties {@link #MIN_TIMEOUT_PROPERTY}
+ * and {@link #MAX_TIMEOUT_PROPERTY}, in milliseconds.
+ */
+public class TimeoutPolicy {
+    public static final String MIN_TIMEOUT_PROPERTY = "purchasingsystem.timeout.min";
+    public static final String MAX_TIMEOUT_PROPERTY = "purchasingsystem.timeout.max";
+
+    private static final long MIN_TIMEOUT_MS = Long.getLong(MIN_TIMEOUT_PROPERTY, 100);
+    private static final long MAX_TIMEOUT_MS = Long.getLong(MAX_TIMEOUT_PROPERTY, 30000);
+
+    private final long minTimeout;
+    private final long maxTimeout;
+    private final Map<Phase, PhaseEstimators> phases = new EnumMap<>(Phase.class);
+
+    public TimeoutPolicy() {
+        this(MIN_TIMEOUT_MS, MAX_TIMEOUT_MS);
+    }
+
+    public TimeoutPolicy(long minTimeout, long maxTimeout) {
+        if (minTimeout <= 0 || maxTimeout < minTimeout) {
+            throw new IllegalArgumentException(String.format("Wrong timeout bounds [%d, %d]", minTimeout, maxTimeout));
+        }
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Time to wait for replies of all counterparts.
+     *
+     * @param initial timeout of the phase before the first reply.
+     */
+    public long getTimeout(Phase phase, Collection<AID> counterparts, long initial) {
+        final PhaseEstimators estimators = estimators(phase);
+        final double phaseTimeout = estimators.phase.getTimeout(initial);
+        double timeout = counterparts.isEmpty() ? phaseTimeout : 0;
+        for (AID counterpart : counterparts) {
+            final RttEstimator estimator = estimators.counterparts.get(counterpart);
+            timeout = Math.max(timeout, estimator == null ? phaseTimeout : estimator.getTimeout(phaseTimeout));
+        }
+        final long bounded = Math.max(minTimeout, Math.min(maxTimeout, (long) Math.ceil(timeout)));
+        Metrics.phase(phase).recordTimeout(bounded);
+        return bounded;
+    }
+
+    /**
+     * @param sentNanos request send time from {@link System#nanoTime()}.
+     */
+    public void replied(Phase phase, AID counterpart, long sentNanos) {
+        final double rtt = (System.nanoTime() - sentNanos) / 1e6;
+        final PhaseEstimators estimators = estimators(phase);
+        estimators.phase.sample(rtt);
+        estimators.counterparts.computeIfAbsent(counterpart, key -> new RttEstimator()).sample(rtt);
+    }
+
+    /**
+     * Back off timeouts of counterparts, which have not replied in time.
+     */
+    public void timedOut(Phase phase, Collection<AID> counterparts, Set<AID> replied) {
+        final PhaseEstimators estimators = estimators(phase);
+        boolean expired = false;
+        for (AID counterpart : counterparts) {
+            if (!replied.contains(counterpart)) {
+                estimators.counterparts.computeIfAbsent(counterpart, key -> new RttEstimator()).timedOut();
+                expired = true;
+            }
+        }
+        if (expired) {
+            Metrics.phase(phase).timeoutExpired();
+        }
+    }
+
+    private PhaseEstimators estimators(Phase phase) {
+        return phases.computeIfAbsent(phase, key -> new PhaseEstimators());
+    }
+
+    private static class PhaseEstimators {
+        final RttEstimator phase = new RttEstimator();
+        final Map<AID, RttEstimator> counterparts = new HashMap<>();
+    }
+}
@@ -0,0 +1,365 @@
+package study.masystems.purchasingsystem.codec;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.PurchaseInfo;
+import study.masystems.purchasingsystem.PurchaseProposal;
+import study.masystems.purchasingsystem.exceptions.CodecException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary codec without reflection.
+ * Content starts with a format version byte, integers are written as varints,
+ * strings as varint length followed by UTF-8 bytes.
+ */
+public class BinaryContentCodec extends ContentCodec {
+    public static final String LANGUAGE = "purchasing-binary";
+
+    private static final byte VERSION = 1;
+
+    @Override
+    public String getLanguage() {
+        return LANGUAGE;
+    }
+
+    @Override
+    public void write(ACLMessage message, byte[] content) {
+        message.setLanguage(LANGUAGE);
+        message.setByteSequenceContent(content);
+    }
+
+    @Override
+    public byte[] read(ACLMessage message) {
+        return message.getByteSequenceContent();
+    }
+
+    @Override
+    public byte[] encodeGoodNeeds(Map<String, GoodNeed> goodNeeds) {
+        Writer writer = new Writer();
+        writer.writeVarInt(goodNeeds.size());
+        goodNeeds.forEach((good, goodNeed) -> {
+            writer.writeString(good);
+            writer.writeVarInt(goodNeed.getQuantity());
+            writer.writeVarInt(goodNeed.getDeliveryPeriodDays());
+        });
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Map<String, GoodNeed> decodeGoodNeeds(byte[] content) {
+        Reader reader = new Reader(content);
+        final int size = reader.readVarInt();
+        Map<String, GoodNeed> goodNeeds = new HashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            final String good = reader.readString();
+            goodNeeds.put(good, new GoodNeed(reader.readVarInt(), reader.readVarInt()));
+        }
+        return goodNeeds;
+    }
+
+    @Override
+    public byte[] encodeProposals(Map<String, PurchaseProposal> proposals) {
+        Writer writer = new Writer();
+        writer.writeVarInt(proposals.size());
+        proposals.forEach((good, proposal) -> {
+            writer.writeString(good);
+            writer.writeAgent(proposal.getSupplier());
+            writer.writeDouble(proposal.getCost());
+            writer.writeVarInt(proposal.getMinimalQuantity());
+            writer.writeVarInt(proposal.getDeliveryPeriodDays());
+        });
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Map<String, PurchaseProposal> decodeProposals(byte[] content) {
+        Reader reader = new Reader(content);
+        final int size = reader.readVarInt();
+        Map<String, PurchaseProposal> proposals = new HashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            final String good = reader.readString();
+            final AID supplier = reader.readAgent();
+            final double cost = reader.readDouble();
+            final int minimalQuantity = reader.readVarInt();
+            final int deliveryPeriodDays = reader.readVarInt();
+            proposals.put(good, new PurchaseProposal(supplier, cost, minimalQuantity, deliveryPeriodDays));
+        }
+        return proposals;
+    }
+
+    @Override
+    public byte[] encodePurchaseInfo(PurchaseInfo purchaseInfo) {
+        Writer writer = new Writer();
+        writer.writeVarInt(purchaseInfo.getDeliveryPeriodDays());
+        final Map<String, Double> goodsPrice = purchaseInfo.getGoodsPrice();
+        final Map<String, Integer> goodsRest = purchaseInfo.getGoodsRest();
+        writer.writeVarInt(goodsPrice.size());
+        writer.writeBoolean(goodsRest != null);
+        goodsPrice.forEach((good, price) -> {
+            writer.writeString(good);
+            writer.writeDouble(price);
+            if (goodsRest != null) {
+                writer.writeSignedVarInt(goodsRest.getOrDefault(good, 0));
+            }
+        });
+        return writer.toByteArray();
+    }
+
+    @Override
+    public PurchaseInfo decodePurchaseInfo(byte[] content) {
+        Reader reader = new Reader(content);
+        final int deliveryPeriodDays = reader.readVarInt();
+        final int size = reader.readVarInt();
+        final boolean hasRest = reader.readBoolean();
+        Map<String, Double> goodsPrice = new HashMap<>(capacity(size));
+        Map<String, Integer> goodsRest = hasRest ? new HashMap<>(capacity(size)) : null;
+        for (int i = 0; i < size; i++) {
+            final String good = reader.readString();
+            goodsPrice.put(good, reader.readDouble());
+            if (hasRest) {
+                goodsRest.put(good, reader.readSignedVarInt());
+            }
+        }
+        PurchaseInfo purchaseInfo = new PurchaseInfo(deliveryPeriodDays, goodsPrice);
+        purchaseInfo.setGoodsRest(goodsRest);
+        return purchaseInfo;
+    }
+
+    @Override
+    public byte[] encodeDemand(Demand demand) {
+        Writer writer = new Writer();
+        writer.writeNullableString(demand.getPurchaseName());
+        writer.writeQuantities(demand.getOrders());
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Demand decodeDemand(byte[] content) {
+        Reader reader = new Reader(content);
+        Demand demand = new Demand(reader.readNullableString());
+        demand.setOrders(reader.readQuantities());
+        return demand;
+    }
+
+    @Override
+    public byte[] encodeOrder(Map<String, Integer> order) {
+        Writer writer = new Writer();
+        writer.writeQuantities(order);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Map<String, Integer> decodeOrder(byte[] content) {
+        return new Reader(content).readQuantities();
+    }
+
+    @Override
+    public byte[] encodeAgents(Set<AID> agents) {
+        Writer writer = new Writer();
+        writer.writeVarInt(agents.size());
+        agents.forEach(writer::writeAgent);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public HashSet<AID> decodeAgents(byte[] content) {
+        Reader reader = new Reader(content);
+        final int size = reader.readVarInt();
+        HashSet<AID> agents = new HashSet<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            agents.add(reader.readAgent());
+        }
+        return agents;
+    }
+
+    @Override
+    public byte[] encodeGoodsDistribution(Map<AID, Map<String, Integer>> distribution) {
+        Writer writer = new Writer();
+        writer.writeVarInt(distribution.size());
+        distribution.forEach((agent, goods) -> {
+            writer.writeAgent(agent);
+            writer.writeBoolean(goods != null);
+            if (goods != null) {
+                writer.writeQuantities(goods);
+            }
+        });
+        return writer.toByteArray();
+    }
+
+    @Override
+    public HashMap<AID, Map<String, Integer>> decodeGoodsDistribution(byte[] content) {
+        Reader reader = new Reader(content);
+        final int size = reader.readVarInt();
+        HashMap<AID, Map<String, Integer>> distribution = new HashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            final AID agent = reader.readAgent();
+            distribution.put(agent, reader.readBoolean() ? reader.readQuantities() : null);
+        }
+        return distribution;
+    }
+
+    private static int capacity(int size) {
+        return size * 4 / 3 + 1;
+    }
+
+    private static class Writer {
+        private byte[] buffer = new byte[64];
+        private int size = 0;
+
+        public Writer() {
+            writeByte(VERSION);
+        }
+
+        public void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        public void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        public void writeSignedVarInt(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        public void writeDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                buffer[size++] = (byte) bits;
+                bits >>>= 8;
+            }
+        }
+
+        public void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        public void writeNullableString(String value) {
+            writeBoolean(value != null);
+            if (value != null) {
+                writeString(value);
+            }
+        }
+
+        public void writeAgent(AID agent) {
+            writeString(agent.getName());
+        }
+
+        public void writeQuantities(Map<String, Integer> quantities) {
+            writeVarInt(quantities.size());
+            quantities.forEach((good, quantity) -> {
+                writeString(good);
+                writeSignedVarInt(quantity);
+            });
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buffer;
+        private int position = 0;
+
+        public Reader(byte[] buffer) {
+            this.buffer = buffer;
+            if (buffer == null || buffer.length == 0) {
+                throw new CodecException("Empty content.");
+            }
+            final byte version = readByte();
+            if (version != VERSION) {
+                throw new CodecException("Unsupported binary content version " + version + ".");
+            }
+        }
+
+        public byte readByte() {
+            if (position >= buffer.length) {
+                throw new CodecException("Unexpected end of content.");
+            }
+            return buffer[position++];
+        }
+
+        public boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        public int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CodecException("Malformed varint.");
+        }
+
+        public int readSignedVarInt() {
+            final int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (readByte() & 0xFFL) << (8 * i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        public String readString() {
+            final int length = readVarInt();
+            if (length < 0 || position + length > buffer.length) {
+                throw new CodecException("Unexpected end of content.");
+            }
+            final String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        public String readNullableString() {
+            return readBoolean() ? readString() : null;
+        }
+
+        public AID readAgent() {
+            return new AID(readString(), AID.ISGUID);
+        }
+
+        public Map<String, Integer> readQuantities() {
+            final int size = readVarInt();
+            Map<String, Integer> quantities = new HashMap<>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                final String good = readString();
+                quantities.put(good, readSignedVarInt());
+            }
+            return quantities;
+        }
+    }
+}
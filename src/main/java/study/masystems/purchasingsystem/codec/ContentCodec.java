@@ -0,0 +1,68 @@
+package study.masystems.purchasingsystem.codec;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.PurchaseInfo;
+import study.masystems.purchasingsystem.PurchaseProposal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encoding of message content exchanged by purchasing agents.
+ * Every codec is identified by the ACL <tt>language</tt> it writes into the message,
+ * so the receiver always decodes with the codec the sender used.
+ * Encoded content is a plain byte array, so it can be cached and reused for several messages.
+ */
+public abstract class ContentCodec {
+
+    public abstract String getLanguage();
+
+    /**
+     * Put encoded content into the message and mark message with codec language.
+     */
+    public abstract void write(ACLMessage message, byte[] content);
+
+    /**
+     * Get encoded content from the message.
+     */
+    public abstract byte[] read(ACLMessage message);
+
+    public abstract byte[] encodeGoodNeeds(Map<String, GoodNeed> goodNeeds);
+
+    public abstract Map<String, GoodNeed> decodeGoodNeeds(byte[] content);
+
+    public abstract byte[] encodeProposals(Map<String, PurchaseProposal> proposals);
+
+    public abstract Map<String, PurchaseProposal> decodeProposals(byte[] content);
+
+    public abstract byte[] encodePurchaseInfo(PurchaseInfo purchaseInfo);
+
+    public abstract PurchaseInfo decodePurchaseInfo(byte[] content);
+
+    public abstract byte[] encodeDemand(Demand demand);
+
+    public abstract Demand decodeDemand(byte[] content);
+
+    /**
+     * Order is a table of goods with quantities.
+     */
+    public abstract byte[] encodeOrder(Map<String, Integer> order);
+
+    public abstract Map<String, Integer> decodeOrder(byte[] content);
+
+    public abstract byte[] encodeAgents(Set<AID> agents);
+
+    public abstract HashSet<AID> decodeAgents(byte[] content);
+
+    /**
+     * Goods distribution is a table of goods with quantities for each buyer.
+     */
+    public abstract byte[] encodeGoodsDistribution(Map<AID, Map<String, Integer>> distribution);
+
+    public abstract HashMap<AID, Map<String, Integer>> decodeGoodsDistribution(byte[] content);
+}
@@ -0,0 +1,45 @@
+package study.masystems.purchasingsystem.codec;
+
+import jade.lang.acl.ACLMessage;
+
+/**
+ * Registry of available content codecs.
+ * Outgoing conversations use the default codec, replies use the codec of the request.
+ * Messages without known language are treated as JSON.
+ */
+public class ContentCodecs {
+    public static final String CODEC_PROPERTY = "purchasingsystem.codec";
+
+    public static final ContentCodec JSON = new JsonContentCodec();
+    public static final ContentCodec BINARY = new BinaryContentCodec();
+
+    private static volatile ContentCodec defaultCodec = forLanguage(System.getProperty(CODEC_PROPERTY, BINARY.getLanguage()));
+
+    private ContentCodecs() {
+    }
+
+    public static ContentCodec getDefault() {
+        return defaultCodec;
+    }
+
+    public static void setDefault(ContentCodec codec) {
+        defaultCodec = codec;
+    }
+
+    /**
+     * @return codec for the language, JSON codec if language is unknown.
+     */
+    public static ContentCodec forLanguage(String language) {
+        if (BINARY.getLanguage().equals(language)) {
+            return BINARY;
+        }
+        return JSON;
+    }
+
+    /**
+     * @return codec the message was written with.
+     */
+    public static ContentCodec forMessage(ACLMessage message) {
+        return forLanguage(message.getLanguage());
+    }
+}
@@ -0,0 +1,126 @@
+package study.masystems.purchasingsystem.codec;
+
+import flexjson.JSONDeserializer;
+import flexjson.JSONSerializer;
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import study.masystems.purchasingsystem.Demand;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.PurchaseInfo;
+import study.masystems.purchasingsystem.PurchaseProposal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * flexjson based codec. Agents are written as their global names.
+ */
+public class JsonContentCodec extends ContentCodec {
+    public static final String LANGUAGE = "json";
+
+    @Override
+    public String getLanguage() {
+        return LANGUAGE;
+    }
+
+    @Override
+    public void write(ACLMessage message, byte[] content) {
+        message.setLanguage(LANGUAGE);
+        message.setContent(new String(content, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public byte[] read(ACLMessage message) {
+        return message.getContent().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeGoodNeeds(Map<String, GoodNeed> goodNeeds) {
+        return serialize(goodNeeds);
+    }
+
+    @Override
+    public Map<String, GoodNeed> decodeGoodNeeds(byte[] content) {
+        return new JSONDeserializer<Map<String, GoodNeed>>().use("values", GoodNeed.class).deserialize(asString(content));
+    }
+
+    @Override
+    public byte[] encodeProposals(Map<String, PurchaseProposal> proposals) {
+        return serialize(proposals);
+    }
+
+    @Override
+    public Map<String, PurchaseProposal> decodeProposals(byte[] content) {
+        return new JSONDeserializer<HashMap<String, PurchaseProposal>>().use("values", PurchaseProposal.class)
+                .deserialize(asString(content));
+    }
+
+    @Override
+    public byte[] encodePurchaseInfo(PurchaseInfo purchaseInfo) {
+        return serialize(purchaseInfo);
+    }
+
+    @Override
+    public PurchaseInfo decodePurchaseInfo(byte[] content) {
+        return new JSONDeserializer<PurchaseInfo>().deserialize(asString(content), PurchaseInfo.class);
+    }
+
+    @Override
+    public byte[] encodeDemand(Demand demand) {
+        return serialize(demand);
+    }
+
+    @Override
+    public Demand decodeDemand(byte[] content) {
+        return new JSONDeserializer<Demand>().use("orders", HashMap.class).deserialize(asString(content), Demand.class);
+    }
+
+    @Override
+    public byte[] encodeOrder(Map<String, Integer> order) {
+        return serialize(order);
+    }
+
+    @Override
+    public Map<String, Integer> decodeOrder(byte[] content) {
+        return new JSONDeserializer<Map<String, Integer>>().deserialize(asString(content));
+    }
+
+    @Override
+    public byte[] encodeAgents(Set<AID> agents) {
+        List<String> names = new ArrayList<>(agents.size());
+        agents.forEach(agent -> names.add(agent.getName()));
+        return serialize(names);
+    }
+
+    @Override
+    public HashSet<AID> decodeAgents(byte[] content) {
+        final List<String> names = new JSONDeserializer<List<String>>().deserialize(asString(content));
+        HashSet<AID> agents = new HashSet<>();
+        names.forEach(name -> agents.add(new AID(name, AID.ISGUID)));
+        return agents;
+    }
+
+    @Override
+    public byte[] encodeGoodsDistribution(Map<AID, Map<String, Integer>> distribution) {
+        Map<String, Map<String, Integer>> namedDistribution = new HashMap<>();
+        distribution.forEach((agent, goods) -> namedDistribution.put(agent.getName(), goods));
+        return serialize(namedDistribution);
+    }
+
+    @Override
+    public HashMap<AID, Map<String, Integer>> decodeGoodsDistribution(byte[] content) {
+        final Map<String, Map<String, Integer>> namedDistribution =
+                new JSONDeserializer<Map<String, Map<String, Integer>>>().deserialize(asString(content));
+        HashMap<AID, Map<String, Integer>> distribution = new HashMap<>();
+        namedDistribution.forEach((name, goods) -> distribution.put(new AID(name, AID.ISGUID), goods));
+        return distribution;
+    }
+
+    private static byte[] serialize(Object object) {
+        return new JSONSerializer().exclude("*.class").serialize(object).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String asString(byte[] content) {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package study.masystems.purchasingsystem.exceptions;
+
+/**
+ * Message content can't be encoded or decoded.
+ */
+public class CodecException extends RuntimeException {
+    public CodecException(String message) {
+        super(message);
+    }
+
+    public CodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CodecException(Throwable cause) {
+        super(cause);
+    }
+}
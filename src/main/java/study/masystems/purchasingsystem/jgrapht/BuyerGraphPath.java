@@ -4,8 +4,11 @@ import flexjson.JSONDeserializer;
 import flexjson.JSONSerializer;
 import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
+import org.jgrapht.Graphs;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 public class BuyerGraphPath<V, E> implements GraphPath<V, E> {
@@ -13,6 +16,10 @@ public class BuyerGraphPath<V, E> implements GraphPath<V, E> {
     private final JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
     private final JSONDeserializer<ArrayList<V>> jsonDeserializer = new JSONDeserializer<>();
 
+    // Path is immutable, vertices are computed once.
+    private List<V> vertices;
+    private BitSet vertexBits;
+
     public BuyerGraphPath(GraphPath<V, E> graphPath) {
         this.graphPath = graphPath;
     }
@@ -45,14 +52,49 @@ public class BuyerGraphPath<V, E> implements GraphPath<V, E> {
     }
 
     public List<V> getVertices() {
-        final List<E> edgeList = getEdgeList();
-        final Graph<V, E> graph = graphPath.getGraph();
-        List<V> vertices = new ArrayList<>(edgeList.size() + 1);
+        if (vertices == null) {
+            final List<E> edgeList = getEdgeList();
+            final Graph<V, E> graph = graphPath.getGraph();
+            List<V> pathVertices = new ArrayList<>(edgeList.size() + 1);
+
+            // Edges of undirected graph may be stored in any direction.
+            V vertex = graphPath.getStartVertex();
+            pathVertices.add(vertex);
+            for (E edge : edgeList) {
+                vertex = Graphs.getOppositeVertex(graph, edge, vertex);
+                pathVertices.add(vertex);
+            }
+            vertices = Collections.unmodifiableList(pathVertices);
+        }
+        return vertices;
+    }
 
-        vertices.add(graphPath.getStartVertex());
-        edgeList.forEach(weightedEdge -> vertices.add(graph.getEdgeTarget(weightedEdge)));
+    /**
+     * Vertices of the path as set bits. Path vertices must be non-negative integers.
+     */
+    public BitSet getVertexBits() {
+        if (vertexBits == null) {
+            BitSet bits = new BitSet();
+            for (V vertex : getVertices()) {
+                bits.set((Integer) vertex);
+            }
+            vertexBits = bits;
+        }
+        return vertexBits;
+    }
 
-        return vertices;
+    /**
+     * @return <tt>true</tt>, if the path passes through any of the vertices.
+     */
+    public boolean intersects(List<Integer> otherVertices) {
+        final BitSet bits = getVertexBits();
+        for (int i = 0; i < otherVertices.size(); i++) {
+            final int vertex = otherVertices.get(i);
+            if (vertex >= 0 && bits.get(vertex)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public String serializePath() {
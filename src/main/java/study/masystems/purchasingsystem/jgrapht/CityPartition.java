@@ -0,0 +1,102 @@
+package study.masystems.purchasingsystem.jgrapht;
+
+import org.jgrapht.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Partition of the city into compact regions of close sizes.
+ * Region centers are chosen by the farthest point rule, each vertex goes to the nearest center
+ * with free capacity, nearest pairs of vertex and center first.
+ */
+public class CityPartition {
+    /**
+     * Maximal region size relative to the average one.
+     */
+    public static final double BALANCE_FACTOR = 1.1;
+    public static final int NO_REGION = -1;
+
+    private final int[] centers;
+    private final int[] sizes;
+    // Region by vertex - minVertex.
+    private final int[] regions;
+    private final int minVertex;
+
+    public CityPartition(DistanceOracle oracle, int regionsCount) {
+        final Graph<Integer, WeightedEdge> graph = oracle.getGraph();
+        final List<Integer> vertices = new ArrayList<>(graph.vertexSet());
+        Collections.sort(vertices);
+        if (regionsCount < 1 || regionsCount > vertices.size()) {
+            throw new IllegalArgumentException(String.format("Cannot split %d vertices into %d regions",
+                    vertices.size(), regionsCount));
+        }
+        this.minVertex = vertices.get(0);
+        this.regions = new int[vertices.get(vertices.size() - 1) - minVertex + 1];
+        Arrays.fill(regions, NO_REGION);
+
+        this.centers = new int[regionsCount];
+        final double[] nearest = new double[vertices.size()];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        centers[0] = vertices.get(0);
+        for (int region = 1; region < regionsCount; region++) {
+            int farthest = 0;
+            for (int i = 0; i < vertices.size(); i++) {
+                nearest[i] = Math.min(nearest[i], oracle.getDistance(centers[region - 1], vertices.get(i)));
+                if (nearest[i] > nearest[farthest]) {
+                    farthest = i;
+                }
+            }
+            centers[region] = vertices.get(farthest);
+        }
+
+        // Pairs of vertex and center ordered by distance, unreachable vertices last.
+        // Key is the float distance, its bits keep the order of non-negative values, and the pair index.
+        final long[] pairs = new long[vertices.size() * regionsCount];
+        for (int i = 0; i < vertices.size(); i++) {
+            for (int region = 0; region < regionsCount; region++) {
+                final int pair = i * regionsCount + region;
+                final float distance = (float) oracle.getDistance(centers[region], vertices.get(i));
+                pairs[pair] = ((long) Float.floatToIntBits(distance) << 32) | pair;
+            }
+        }
+        Arrays.sort(pairs);
+
+        this.sizes = new int[regionsCount];
+        final int capacity = (int) Math.ceil(BALANCE_FACTOR * vertices.size() / regionsCount);
+        for (long key : pairs) {
+            final int pair = (int) key;
+            final int vertex = vertices.get(pair / regionsCount);
+            final int region = pair % regionsCount;
+            if (regions[vertex - minVertex] == NO_REGION && sizes[region] < capacity) {
+                regions[vertex - minVertex] = region;
+                sizes[region]++;
+            }
+        }
+    }
+
+    public int getRegionsCount() {
+        return centers.length;
+    }
+
+    /**
+     * @return region of the vertex, {@link #NO_REGION} for vertices out of the city.
+     */
+    public int getRegion(int vertex) {
+        final int offset = vertex - minVertex;
+        return offset >= 0 && offset < regions.length ? regions[offset] : NO_REGION;
+    }
+
+    public int getCenter(int region) {
+        return centers[region];
+    }
+
+    /**
+     * @return vertices count of the region.
+     */
+    public int getSize(int region) {
+        return sizes[region];
+    }
+}
@@ -0,0 +1,102 @@
+package study.masystems.purchasingsystem.jgrapht;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Delivery of purchased goods: carriers pick up goods at the customer and hand them over
+ * to other buyers on their routes, in the order of stops.
+ *
+ * @param <K> buyer identifier.
+ */
+public class DeliveryPlan<K> {
+    private static final String CARRIER_SEPARATOR = ";";
+    private static final String STOP_SEPARATOR = ",";
+
+    private final Map<K, List<K>> stops = new LinkedHashMap<>();
+    private final Map<K, K> carriers = new HashMap<>();
+    private double detour;
+
+    DeliveryPlan() {
+    }
+
+    void addCarrier(K carrier, List<K> carrierStops) {
+        stops.put(carrier, new ArrayList<>(carrierStops));
+        carriers.put(carrier, carrier);
+        carrierStops.forEach(stop -> carriers.put(stop, carrier));
+    }
+
+    void setDetour(double detour) {
+        this.detour = detour;
+    }
+
+    /**
+     * @return buyers, which pick up goods at the customer.
+     */
+    public Set<K> getCarriers() {
+        return Collections.unmodifiableSet(stops.keySet());
+    }
+
+    /**
+     * @return buyers served by the carrier in the order of the route.
+     */
+    public List<K> getStops(K carrier) {
+        final List<K> carrierStops = stops.get(carrier);
+        return carrierStops == null ? Collections.emptyList() : Collections.unmodifiableList(carrierStops);
+    }
+
+    /**
+     * @return carrier of the buyer, the buyer itself for carriers, <tt>null</tt> for unknown buyers.
+     */
+    public K getCarrier(K buyer) {
+        return carriers.get(buyer);
+    }
+
+    public boolean contains(K buyer) {
+        return carriers.containsKey(buyer);
+    }
+
+    /**
+     * @return total detour of carriers compared with their own routes.
+     */
+    public double getDetour() {
+        return detour;
+    }
+
+    /**
+     * Text form: carriers separated by ';', each followed by its stops, all separated by ','.
+     */
+    public String serialize(Function<K, String> names) {
+        final StringBuilder builder = new StringBuilder();
+        stops.forEach((carrier, carrierStops) -> {
+            if (builder.length() > 0) {
+                builder.append(CARRIER_SEPARATOR);
+            }
+            builder.append(names.apply(carrier));
+            carrierStops.forEach(stop -> builder.append(STOP_SEPARATOR).append(names.apply(stop)));
+        });
+        return builder.toString();
+    }
+
+    public static <K> DeliveryPlan<K> deserialize(String serializedPlan, Function<String, K> keys) {
+        final DeliveryPlan<K> plan = new DeliveryPlan<>();
+        for (String route : serializedPlan.split(CARRIER_SEPARATOR)) {
+            if (route.isEmpty()) {
+                continue;
+            }
+            final String[] names = route.split(STOP_SEPARATOR);
+            final List<K> carrierStops = new ArrayList<>(names.length - 1);
+            for (int i = 1; i < names.length; i++) {
+                carrierStops.add(keys.apply(names[i]));
+            }
+            plan.addCarrier(keys.apply(names[0]), carrierStops);
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,175 @@
+package study.masystems.purchasingsystem.jgrapht;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan delivery of goods from the customer position to buyers with known routes.
+ * <p>
+ * Every buyer either picks up its goods at the customer, making a detour from its route, or receives them
+ * from a carrier at the vertex of its route nearest to the customer. Buyers are moved to carriers
+ * by the cheapest insertion, largest own detour first, while the insertion is cheaper than the own detour.
+ * Stops of each carrier are then ordered by 2-opt.
+ *
+ * @param <K> buyer identifier.
+ */
+public class DeliveryPlanner<K> {
+    /**
+     * Maximal count of buyers served by one carrier.
+     */
+    public static final int MAX_STOPS = 4;
+
+    private final DistanceOracle oracle;
+    private final Map<K, Route> routes = new LinkedHashMap<>();
+
+    public DeliveryPlanner(DistanceOracle oracle) {
+        this.oracle = oracle;
+    }
+
+    /**
+     * @param vertices route of the buyer from the start to the end vertex.
+     */
+    public void addRoute(K buyer, List<Integer> vertices) {
+        if (vertices.isEmpty()) {
+            throw new IllegalArgumentException("Empty route of " + buyer);
+        }
+        routes.put(buyer, new Route(buyer, vertices));
+    }
+
+    public DeliveryPlan<K> plan(int pickup) {
+        final List<Route> buyers = new ArrayList<>(routes.values());
+        for (Route route : buyers) {
+            route.prepare(pickup);
+        }
+        // Buyers with large own detour gain most from carriers.
+        buyers.sort((left, right) -> Double.compare(right.ownDetour, left.ownDetour));
+        for (Route buyer : buyers) {
+            if (!buyer.stops.isEmpty()) {
+                continue;
+            }
+            Route bestCarrier = null;
+            int bestPosition = -1;
+            double bestInsertion = buyer.ownDetour;
+            for (Route carrier : buyers) {
+                if (carrier == buyer || carrier.carrier != null || carrier.stops.size() >= MAX_STOPS) {
+                    continue;
+                }
+                for (int position = 0; position <= carrier.stops.size(); position++) {
+                    final double insertion = carrier.insertionCost(pickup, position, buyer.handover);
+                    if (insertion < bestInsertion) {
+                        bestInsertion = insertion;
+                        bestCarrier = carrier;
+                        bestPosition = position;
+                    }
+                }
+            }
+            if (bestCarrier != null) {
+                bestCarrier.stops.add(bestPosition, buyer);
+                buyer.carrier = bestCarrier;
+            }
+        }
+
+        final DeliveryPlan<K> plan = new DeliveryPlan<>();
+        double detour = 0;
+        for (Route route : routes.values()) {
+            if (route.carrier != null) {
+                continue;
+            }
+            route.improve(pickup);
+            final List<K> stops = new ArrayList<>(route.stops.size());
+            route.stops.forEach(stop -> stops.add(stop.buyer));
+            plan.addCarrier(route.buyer, stops);
+            detour += route.tourLength(pickup) - route.directLength;
+        }
+        plan.setDetour(detour);
+        return plan;
+    }
+
+    private double distance(int source, int target) {
+        return oracle.getDistance(source, target);
+    }
+
+    private class Route {
+        final K buyer;
+        final List<Integer> vertices;
+        final int start;
+        final int end;
+        double directLength;
+        double ownDetour;
+        // Vertex of the route nearest to the pickup, where a carrier hands over goods.
+        int handover;
+        Route carrier;
+        final List<Route> stops = new ArrayList<>();
+
+        Route(K buyer, List<Integer> vertices) {
+            this.buyer = buyer;
+            this.vertices = vertices;
+            this.start = vertices.get(0);
+            this.end = vertices.get(vertices.size() - 1);
+        }
+
+        void prepare(int pickup) {
+            carrier = null;
+            stops.clear();
+            directLength = distance(start, end);
+            ownDetour = oracle.getDetour(start, end, pickup);
+            handover = start;
+            for (int vertex : vertices) {
+                if (distance(pickup, vertex) < distance(pickup, handover)) {
+                    handover = vertex;
+                }
+            }
+        }
+
+        /**
+         * Vertex of the tour start -> pickup -> stops -> end at the index, pickup has index 0.
+         */
+        private int vertexAt(int pickup, int index) {
+            if (index == 0) {
+                return pickup;
+            }
+            return index <= stops.size() ? stops.get(index - 1).handover : end;
+        }
+
+        double insertionCost(int pickup, int position, int vertex) {
+            final int previous = vertexAt(pickup, position);
+            final int next = vertexAt(pickup, position + 1);
+            return distance(previous, vertex) + distance(vertex, next) - distance(previous, next);
+        }
+
+        double tourLength(int pickup) {
+            double length = distance(start, pickup);
+            for (int index = 0; index <= stops.size(); index++) {
+                length += distance(vertexAt(pickup, index), vertexAt(pickup, index + 1));
+            }
+            return length;
+        }
+
+        /**
+         * 2-opt: reverse segments of stops while the tour gets shorter. Pickup and end stay in place.
+         */
+        void improve(int pickup) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 1; i < stops.size(); i++) {
+                    for (int j = i + 1; j <= stops.size(); j++) {
+                        final int before = vertexAt(pickup, i - 1);
+                        final int first = vertexAt(pickup, i);
+                        final int last = vertexAt(pickup, j);
+                        final int after = vertexAt(pickup, j + 1);
+                        final double change = distance(before, last) + distance(first, after)
+                                - distance(before, first) - distance(last, after);
+                        if (change < -1e-9) {
+                            Collections.reverse(stops.subList(i - 1, j));
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package study.masystems.purchasingsystem.jgrapht;
+
+import org.jgrapht.Graph;
+import org.jgrapht.GraphPath;
+import org.jgrapht.graph.GraphPathImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * All-pairs shortest distances of the city graph.
+ * Distances and predecessors are stored in flat primitive arrays (row per source vertex)
+ * and computed with one Dijkstra run per source, in parallel.
+ * The oracle is immutable after construction, so one instance is shared by all agents.
+ */
+public class DistanceOracle {
+    private static final int NO_VERTEX = -1;
+
+    private final Graph<Integer, WeightedEdge> graph;
+    private final int vertexCount;
+
+    // Dense index <-> vertex mapping.
+    private final int[] vertices;
+    private final int[] vertexIndex;
+    private final int minVertex;
+
+    // Compressed adjacency lists.
+    private final int[] adjacencyOffsets;
+    private final int[] adjacencyTargets;
+    private final double[] adjacencyWeights;
+
+    // Row-major vertexCount x vertexCount tables.
+    private final double[] distances;
+    private final int[] predecessors;
+
+    public DistanceOracle(Graph<Integer, WeightedEdge> graph) {
+        this.graph = graph;
+
+        List<Integer> vertexList = new ArrayList<>(graph.vertexSet());
+        Collections.sort(vertexList);
+        this.vertexCount = vertexList.size();
+        this.vertices = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            vertices[i] = vertexList.get(i);
+        }
+        this.minVertex = vertexCount == 0 ? 0 : vertices[0];
+        this.vertexIndex = new int[vertexCount == 0 ? 0 : vertices[vertexCount - 1] - minVertex + 1];
+        Arrays.fill(vertexIndex, NO_VERTEX);
+        for (int i = 0; i < vertexCount; i++) {
+            vertexIndex[vertices[i] - minVertex] = i;
+        }
+
+        this.adjacencyOffsets = new int[vertexCount + 1];
+        for (int i = 0; i < vertexCount; i++) {
+            adjacencyOffsets[i + 1] = adjacencyOffsets[i] + graph.edgesOf(vertices[i]).size();
+        }
+        this.adjacencyTargets = new int[adjacencyOffsets[vertexCount]];
+        this.adjacencyWeights = new double[adjacencyOffsets[vertexCount]];
+        for (int i = 0; i < vertexCount; i++) {
+            int cursor = adjacencyOffsets[i];
+            final Integer vertex = vertices[i];
+            for (WeightedEdge edge : graph.edgesOf(vertex)) {
+                Integer opposite = graph.getEdgeSource(edge);
+                if (opposite.equals(vertex)) {
+                    opposite = graph.getEdgeTarget(edge);
+                }
+                adjacencyTargets[cursor] = vertexIndex[opposite - minVertex];
+                adjacencyWeights[cursor] = graph.getEdgeWeight(edge);
+                cursor++;
+            }
+        }
+
+        final long tableSize = (long) vertexCount * vertexCount;
+        if (tableSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "City graph of %d vertices is too large for distance tables.", vertexCount));
+        }
+        this.distances = new double[vertexCount * vertexCount];
+        this.predecessors = new int[vertexCount * vertexCount];
+        IntStream.range(0, vertexCount).parallel().forEach(this::computeRow);
+    }
+
+    /**
+     * Single-source Dijkstra filling one row of the distance and predecessor tables.
+     */
+    private void computeRow(int source) {
+        final int rowOffset = source * vertexCount;
+        Arrays.fill(distances, rowOffset, rowOffset + vertexCount, Double.POSITIVE_INFINITY);
+        Arrays.fill(predecessors, rowOffset, rowOffset + vertexCount, NO_VERTEX);
+
+        IndexedHeap heap = new IndexedHeap(vertexCount);
+        distances[rowOffset + source] = 0.0;
+        heap.insert(source, 0.0);
+
+        while (!heap.isEmpty()) {
+            final int vertex = heap.poll();
+            final double distance = distances[rowOffset + vertex];
+            for (int i = adjacencyOffsets[vertex]; i < adjacencyOffsets[vertex + 1]; i++) {
+                final int target = adjacencyTargets[i];
+                final double newDistance = distance + adjacencyWeights[i];
+                if (newDistance < distances[rowOffset + target]) {
+                    distances[rowOffset + target] = newDistance;
+                    predecessors[rowOffset + target] = vertex;
+                    heap.insertOrDecrease(target, newDistance);
+                }
+            }
+        }
+    }
+
+    public Graph<Integer, WeightedEdge> getGraph() {
+        return graph;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public boolean containsVertex(int vertex) {
+        final int offset = vertex - minVertex;
+        return offset >= 0 && offset < vertexIndex.length && vertexIndex[offset] != NO_VERTEX;
+    }
+
+    /**
+     * @return shortest distance between vertices, or <tt>Double.POSITIVE_INFINITY</tt> if target is unreachable.
+     */
+    public double getDistance(int source, int target) {
+        return distances[indexOf(source) * vertexCount + indexOf(target)];
+    }
+
+    /**
+     * Extra distance of the route source -> via -> target compared with the shortest route source -> target.
+     */
+    public double getDetour(int source, int target, int via) {
+        final int sourceIndex = indexOf(source);
+        final int targetIndex = indexOf(target);
+        final int viaIndex = indexOf(via);
+        return distances[sourceIndex * vertexCount + viaIndex]
+                + distances[viaIndex * vertexCount + targetIndex]
+                - distances[sourceIndex * vertexCount + targetIndex];
+    }
+
+    /**
+     * Length of the shortest route source -> via -> target over all via vertices.
+     * Uses source and target rows only, the graph is undirected.
+     *
+     * @return route length, or <tt>Double.POSITIVE_INFINITY</tt> if there is no via vertex.
+     */
+    public double getShortestRouteVia(int source, int target, List<Integer> via) {
+        final int sourceRow = indexOf(source) * vertexCount;
+        final int targetRow = indexOf(target) * vertexCount;
+        double shortest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < via.size(); i++) {
+            final int viaIndex = indexOf(via.get(i));
+            final double length = distances[sourceRow + viaIndex] + distances[targetRow + viaIndex];
+            if (length < shortest) {
+                shortest = length;
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * Restore shortest path from the predecessor table.
+     *
+     * @return path between vertices, or <tt>null</tt> if target is unreachable.
+     */
+    public GraphPath<Integer, WeightedEdge> getShortestPath(Integer source, Integer target) {
+        final int sourceIndex = indexOf(source);
+        final int targetIndex = indexOf(target);
+        final int rowOffset = sourceIndex * vertexCount;
+        final double weight = distances[rowOffset + targetIndex];
+        if (Double.isInfinite(weight)) {
+            return null;
+        }
+
+        List<WeightedEdge> edgeList = new ArrayList<>();
+        int current = targetIndex;
+        while (current != sourceIndex) {
+            final int previous = predecessors[rowOffset + current];
+            edgeList.add(graph.getEdge(vertices[previous], vertices[current]));
+            current = previous;
+        }
+        Collections.reverse(edgeList);
+        return new GraphPathImpl<>(graph, source, target, edgeList, weight);
+    }
+
+    private int indexOf(int vertex) {
+        final int offset = vertex - minVertex;
+        if (offset < 0 || offset >= vertexIndex.length || vertexIndex[offset] == NO_VERTEX) {
+            throw new IllegalArgumentException("Vertex " + vertex + " not found.");
+        }
+        return vertexIndex[offset];
+    }
+
+    /**
+     * Binary min-heap over vertex indices with decrease-key support.
+     */
+    private static class IndexedHeap {
+        private final int[] heap;
+        private final int[] position;
+        private final double[] keys;
+        private int size = 0;
+
+        public IndexedHeap(int capacity) {
+            heap = new int[capacity];
+            position = new int[capacity];
+            keys = new double[capacity];
+            Arrays.fill(position, NO_VERTEX);
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void insert(int vertex, double key) {
+            keys[vertex] = key;
+            heap[size] = vertex;
+            position[vertex] = size;
+            siftUp(size++);
+        }
+
+        public void insertOrDecrease(int vertex, double key) {
+            if (position[vertex] == NO_VERTEX) {
+                insert(vertex, key);
+            } else {
+                keys[vertex] = key;
+                siftUp(position[vertex]);
+            }
+        }
+
+        public int poll() {
+            final int top = heap[0];
+            position[top] = NO_VERTEX;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            final int vertex = heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (keys[heap[parent]] <= keys[vertex]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = vertex;
+            position[vertex] = i;
+        }
+
+        private void siftDown(int i) {
+            final int vertex = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                    child++;
+                }
+                if (keys[heap[child]] >= keys[vertex]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = vertex;
+            position[vertex] = i;
+        }
+    }
+}
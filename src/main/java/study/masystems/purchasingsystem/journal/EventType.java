@@ -0,0 +1,40 @@
+package study.masystems.purchasingsystem.journal;
+
+/**
+ * Type of journal record. Code 0 marks the unwritten tail of the journal file.
+ */
+public enum EventType {
+    /** Chunk of an interned string: agent names, conversation ids and good names. */
+    STRING(1),
+    MESSAGE_SENT(2),
+    MESSAGE_RECEIVED(3),
+    PURCHASE_OPENED(4),
+    PURCHASE_CLOSED(5),
+    DEMAND_ADDED(6),
+    PROPOSAL_UPDATED(7);
+
+    private static final EventType[] byCode = new EventType[8];
+
+    static {
+        for (EventType type : values()) {
+            byCode[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    EventType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return event type or <tt>null</tt> for unknown code.
+     */
+    public static EventType of(int code) {
+        return code > 0 && code < byCode.length ? byCode[code] : null;
+    }
+}
@@ -0,0 +1,161 @@
+package study.masystems.purchasingsystem.journal;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import jade.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide event journal of messages and purchase state transitions.
+ * Recording methods do nothing until the journal is started.
+ * Strings are interned, a string is written to the journal once, when it gets its id.
+ */
+public class Journal {
+    private static final int RING_CAPACITY = 1 << 16;
+    // Interned strings are forgotten on overflow, a repeated string gets a new id.
+    private static final int MAX_STRINGS = 1 << 20;
+    private static final int NONE = 0;
+
+    private static Logger logger = Logger.getMyLogger(Journal.class.getName());
+
+    private static volatile JournalWriter writer;
+    private static final ConcurrentHashMap<String, Integer> strings = new ConcurrentHashMap<>();
+    private static final AtomicInteger lastStringId = new AtomicInteger();
+    private static Thread shutdownHook;
+
+    private Journal() {
+    }
+
+    /**
+     * Start recording to the file, the file is overwritten. The journal is closed on JVM shutdown.
+     */
+    public static synchronized void start(File file) throws IOException {
+        stop();
+        strings.clear();
+        writer = new JournalWriter(file, RING_CAPACITY);
+        shutdownHook = new Thread(Journal::stop, "journal-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public static synchronized void stop() {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        try {
+            current.close();
+        } catch (IOException e) {
+            logger.log(Logger.WARNING, "Cannot close journal: " + e.getMessage());
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        shutdownHook = null;
+    }
+
+    public static boolean isEnabled() {
+        return writer != null;
+    }
+
+    public static long getDropped() {
+        final JournalWriter current = writer;
+        return current == null ? 0 : current.getDropped();
+    }
+
+    /**
+     * @param receiver  the first receiver.
+     * @param receivers receivers count.
+     */
+    public static void messageSent(String agent, ACLMessage message, AID receiver, int receivers) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        current.append(EventType.MESSAGE_SENT, intern(current, agent), intern(current, message.getConversationId()),
+                receiver == null ? NONE : intern(current, receiver.getLocalName()),
+                message.getPerformative(), receivers, 0, 0);
+    }
+
+    public static void messageReceived(String agent, ACLMessage message) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        final AID sender = message.getSender();
+        current.append(EventType.MESSAGE_RECEIVED, intern(current, agent), intern(current, message.getConversationId()),
+                sender == null ? NONE : intern(current, sender.getLocalName()),
+                message.getPerformative(), 1, 0, 0);
+    }
+
+    public static void purchaseOpened(String customer, String conversationId) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        current.append(EventType.PURCHASE_OPENED, intern(current, customer), intern(current, conversationId),
+                NONE, 0, 0, 0, 0);
+    }
+
+    /**
+     * @param formed 1 if the purchase has enough demand, 0 otherwise.
+     */
+    public static void purchaseClosed(String customer, String conversationId, int formed, int buyers) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        current.append(EventType.PURCHASE_CLOSED, intern(current, customer), intern(current, conversationId),
+                NONE, formed, buyers, 0, 0);
+    }
+
+    /**
+     * @param total total demand for the good after the change.
+     */
+    public static void demandAdded(String customer, String conversationId, String buyer, String good,
+                                   int count, int total) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        current.append(EventType.DEMAND_ADDED, intern(current, customer), intern(current, conversationId),
+                intern(current, buyer), intern(current, good), count, total, 0);
+    }
+
+    /**
+     * The best proposal of customers for the good is changed in the buyer proposal table.
+     */
+    public static void proposalUpdated(String buyer, String customer, String good, double cost, int rest) {
+        final JournalWriter current = writer;
+        if (current == null) {
+            return;
+        }
+        current.append(EventType.PROPOSAL_UPDATED, intern(current, buyer), NONE, intern(current, customer),
+                intern(current, good), rest, Double.doubleToRawLongBits(cost), 0);
+    }
+
+    private static int intern(JournalWriter current, String value) {
+        if (value == null) {
+            return NONE;
+        }
+        final Integer id = strings.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (strings.size() >= MAX_STRINGS) {
+            strings.clear();
+        }
+        final int newId = lastStringId.incrementAndGet();
+        // The id is kept only when the string is written, otherwise events refer to no string.
+        if (!current.appendString(newId, value.getBytes(StandardCharsets.UTF_8))) {
+            return NONE;
+        }
+        final Integer previous = strings.putIfAbsent(value, newId);
+        return previous != null ? previous : newId;
+    }
+}
@@ -0,0 +1,79 @@
+package study.masystems.purchasingsystem.journal;
+
+/**
+ * Journal record with resolved strings. Meaning of code, count and value depends on the type:
+ * performative and receivers count of messages, good name, quantity and total demand or cost of goods.
+ */
+public class JournalEvent {
+    private final long timeNanos;
+    private final EventType type;
+    private final String agent;
+    private final String conversationId;
+    private final String peer;
+    private final int code;
+    private final String good;
+    private final int count;
+    private final long value;
+
+    JournalEvent(long timeNanos, EventType type, String agent, String conversationId, String peer,
+                 int code, String good, int count, long value) {
+        this.timeNanos = timeNanos;
+        this.type = type;
+        this.agent = agent;
+        this.conversationId = conversationId;
+        this.peer = peer;
+        this.code = code;
+        this.good = good;
+        this.count = count;
+        this.value = value;
+    }
+
+    /**
+     * @return nanoseconds since the journal start.
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * @return performative of messages, 1 for formed purchase.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return good name of demand and proposal events.
+     */
+    public String getGood() {
+        return good;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public double getCost() {
+        return Double.longBitsToDouble(value);
+    }
+}
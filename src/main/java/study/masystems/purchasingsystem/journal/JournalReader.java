@@ -0,0 +1,130 @@
+package study.masystems.purchasingsystem.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static study.masystems.purchasingsystem.journal.JournalWriter.*;
+
+/**
+ * Read the journal file written by {@link JournalWriter}. Strings are collected in the first pass,
+ * so events may be written before their strings.
+ */
+public class JournalReader {
+    private static final int BATCH_RECORDS = 1 << 14;
+
+    private final File journalFile;
+    private final Map<Integer, byte[]> stringBytes = new HashMap<>();
+    private final Map<Integer, String> strings = new HashMap<>();
+    private long startMillis;
+
+    public JournalReader(File journalFile) throws IOException {
+        this.journalFile = journalFile;
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+             FileChannel channel = file.getChannel()) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_SIZE) {
+                throw new IOException("Journal is too short: " + journalFile);
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD_SIZE) {
+                throw new IOException("Not a journal file: " + journalFile);
+            }
+            header.getInt();
+            startMillis = header.getLong();
+        }
+        scan(this::readString);
+        stringBytes.forEach((id, bytes) -> strings.put(id, new String(bytes, StandardCharsets.UTF_8)));
+        stringBytes.clear();
+    }
+
+    /**
+     * @return wall clock time of the journal start in milliseconds.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Pass events in the order of the file, which is close to the order of time.
+     */
+    public void forEach(Consumer<JournalEvent> action) throws IOException {
+        scan(record -> {
+            final EventType type = EventType.of(record.getInt(TYPE));
+            if (type == null || type == EventType.STRING) {
+                return;
+            }
+            final boolean goods = type == EventType.DEMAND_ADDED || type == EventType.PROPOSAL_UPDATED;
+            action.accept(new JournalEvent(record.getLong(TIME), type,
+                    string(record.getInt(AGENT)), string(record.getInt(CONVERSATION)), string(record.getInt(PEER)),
+                    record.getInt(CODE), goods ? string(record.getInt(CODE)) : null,
+                    record.getInt(COUNT), record.getLong(VALUE)));
+        });
+    }
+
+    private String string(int id) {
+        if (id == 0) {
+            return null;
+        }
+        final String value = strings.get(id);
+        return value == null ? "#" + id : value;
+    }
+
+    private void readString(ByteBuffer record) {
+        if (record.getInt(TYPE) != EventType.STRING.getCode()) {
+            return;
+        }
+        final int id = record.getInt(AGENT);
+        final int length = record.getInt(CONVERSATION);
+        final int offset = record.getInt(PEER);
+        if (length < 0 || offset < 0 || offset >= Math.max(length, 1)) {
+            return;
+        }
+        final byte[] bytes = stringBytes.computeIfAbsent(id, key -> new byte[length]);
+        if (bytes.length != length) {
+            return;
+        }
+        for (int i = 0; i < STRING_CHUNK && offset + i < length; i++) {
+            bytes[offset + i] = record.get(CODE + i);
+        }
+    }
+
+    /**
+     * Pass each record as a buffer positioned at 0, until the end of file or the first empty record.
+     */
+    private void scan(Consumer<ByteBuffer> action) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+             FileChannel channel = file.getChannel()) {
+            final ByteBuffer batch = ByteBuffer.allocate(BATCH_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_SIZE;
+            while (true) {
+                batch.clear();
+                int read;
+                do {
+                    read = channel.read(batch, position + batch.position());
+                } while (read > 0 && batch.hasRemaining());
+                final int records = batch.position() / RECORD_SIZE;
+                for (int i = 0; i < records; i++) {
+                    batch.limit((i + 1) * RECORD_SIZE);
+                    batch.position(i * RECORD_SIZE);
+                    final ByteBuffer record = batch.slice().order(ByteOrder.LITTLE_ENDIAN);
+                    if (record.getInt(TYPE) == 0) {
+                        return;
+                    }
+                    action.accept(record);
+                }
+                if (records < BATCH_RECORDS) {
+                    return;
+                }
+                position += (long) records * RECORD_SIZE;
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package study.masystems.purchasingsystem.journal;
+
+import jade.lang.acl.ACLMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuild purchases from the journal without starting agents.
+ * <p>
+ * Usage: JournalReplay FILE [PURCHASE_CONVERSATION_ID] [--top N]
+ * <p>
+ * Without conversation id prints the slowest purchases. With conversation id prints the timeline
+ * of the purchase: its state transitions, demand and messages of the purchase and delivery conversations.
+ */
+public class JournalReplay {
+    private static final String DELIVERY_SUFFIX = "_delivery";
+
+    private final JournalReader reader;
+
+    public JournalReplay(JournalReader reader) {
+        this.reader = reader;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplay FILE [PURCHASE_CONVERSATION_ID] [--top N]");
+            System.exit(1);
+        }
+        String conversationId = null;
+        int top = 20;
+        for (int i = 1; i < args.length; i++) {
+            if ("--top".equals(args[i]) && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            } else {
+                conversationId = args[i];
+            }
+        }
+
+        final JournalReplay replay = new JournalReplay(new JournalReader(new File(args[0])));
+        if (conversationId == null) {
+            replay.printPurchases(top);
+        } else {
+            replay.printTimeline(conversationId);
+        }
+    }
+
+    /**
+     * Purchase from open to close, with messages of its conversations.
+     */
+    public static class PurchaseSummary {
+        private final String customer;
+        private final String conversationId;
+        private long openNanos = -1;
+        private long closeNanos = -1;
+        private long lastNanos = -1;
+        private boolean formed;
+        private int buyers;
+        private int demands;
+        private int messages;
+
+        PurchaseSummary(String customer, String conversationId) {
+            this.customer = customer;
+            this.conversationId = conversationId;
+        }
+
+        public String getCustomer() {
+            return customer;
+        }
+
+        public String getConversationId() {
+            return conversationId;
+        }
+
+        /**
+         * @return open time in nanoseconds since the journal start, -1 if not known.
+         */
+        public long getOpenNanos() {
+            return openNanos;
+        }
+
+        /**
+         * @return time from open to close, -1 if the purchase is not closed.
+         */
+        public long getDurationNanos() {
+            return openNanos < 0 || closeNanos < 0 ? -1 : closeNanos - openNanos;
+        }
+
+        /**
+         * @return time from open to the last event of the purchase and delivery conversations.
+         */
+        public long getTotalNanos() {
+            return openNanos < 0 ? -1 : lastNanos - openNanos;
+        }
+
+        public boolean isFormed() {
+            return formed;
+        }
+
+        public int getBuyers() {
+            return buyers;
+        }
+
+        public int getDemands() {
+            return demands;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * Summaries of all purchases by conversation id, each purchase attempt has its own conversation id.
+     */
+    public Map<String, PurchaseSummary> collectPurchases() throws IOException {
+        final Map<String, PurchaseSummary> purchases = new HashMap<>();
+        reader.forEach(event -> {
+            final String conversationId = event.getConversationId();
+            if (conversationId == null) {
+                return;
+            }
+            if (event.getType() == EventType.PURCHASE_OPENED) {
+                final PurchaseSummary summary = new PurchaseSummary(event.getAgent(), conversationId);
+                summary.openNanos = event.getTimeNanos();
+                summary.lastNanos = event.getTimeNanos();
+                purchases.put(conversationId, summary);
+                return;
+            }
+            final PurchaseSummary summary = purchases.get(purchaseConversation(conversationId));
+            if (summary == null) {
+                return;
+            }
+            summary.lastNanos = Math.max(summary.lastNanos, event.getTimeNanos());
+            switch (event.getType()) {
+                case PURCHASE_CLOSED:
+                    summary.closeNanos = event.getTimeNanos();
+                    summary.formed = event.getCode() == 1;
+                    summary.buyers = event.getCount();
+                    break;
+                case DEMAND_ADDED:
+                    summary.demands++;
+                    break;
+                case MESSAGE_SENT:
+                    summary.messages += event.getCount();
+                    break;
+                default:
+                    break;
+            }
+        });
+        return purchases;
+    }
+
+    public void printPurchases(int top) throws IOException {
+        final List<PurchaseSummary> purchases = new ArrayList<>(collectPurchases().values());
+        purchases.sort(Comparator.comparingLong(PurchaseSummary::getTotalNanos).reversed());
+        System.out.printf("Journal started %s, %d purchases%n", formatDate(reader.getStartMillis()), purchases.size());
+        System.out.printf("%-24s %-40s %10s %10s %10s %6s %7s %8s%n",
+                "customer", "conversation", "open, ms", "close, ms", "total, ms", "formed", "buyers", "messages");
+        for (PurchaseSummary summary : purchases.subList(0, Math.min(top, purchases.size()))) {
+            System.out.printf("%-24s %-40s %10.1f %10s %10.1f %6s %7d %8d%n",
+                    summary.getCustomer(), summary.getConversationId(), millis(summary.getOpenNanos()),
+                    summary.getDurationNanos() < 0 ? "-" : String.format("%.1f", millis(summary.getDurationNanos())),
+                    millis(summary.getTotalNanos()), summary.isFormed(), summary.getBuyers(), summary.getMessages());
+        }
+    }
+
+    public void printTimeline(String conversationId) throws IOException {
+        final long[] first = {-1};
+        reader.forEach(event -> {
+            final String eventConversation = event.getConversationId();
+            if (eventConversation == null || !purchaseConversation(eventConversation).equals(conversationId)) {
+                return;
+            }
+            if (first[0] < 0) {
+                first[0] = event.getTimeNanos();
+                System.out.printf("Purchase %s, first event at %s%n", conversationId,
+                        formatDate(reader.getStartMillis() + event.getTimeNanos() / 1_000_000));
+            }
+            System.out.printf("%+10.1f ms  %s%n", millis(event.getTimeNanos() - first[0]), describe(event));
+        });
+        if (first[0] < 0) {
+            System.out.println("No events of purchase " + conversationId);
+        }
+    }
+
+    static String describe(JournalEvent event) {
+        switch (event.getType()) {
+            case MESSAGE_SENT:
+                return String.format("%s sent %s to %s%s [%s]", event.getAgent(), ACLMessage.getPerformative(event.getCode()),
+                        event.getPeer(), event.getCount() > 1 ? " and " + (event.getCount() - 1) + " more" : "",
+                        event.getConversationId());
+            case MESSAGE_RECEIVED:
+                return String.format("%s received %s from %s [%s]", event.getAgent(),
+                        ACLMessage.getPerformative(event.getCode()), event.getPeer(), event.getConversationId());
+            case PURCHASE_OPENED:
+                return String.format("%s opened purchase", event.getAgent());
+            case PURCHASE_CLOSED:
+                return String.format("%s closed purchase, %s, %d buyers", event.getAgent(),
+                        event.getCode() == 1 ? "formed" : "not formed", event.getCount());
+            case DEMAND_ADDED:
+                return String.format("%s added demand of %s: %d %s, total %d", event.getAgent(), event.getPeer(),
+                        event.getCount(), event.getGood(), event.getValue());
+            default:
+                return event.getType().toString();
+        }
+    }
+
+    private static String purchaseConversation(String conversationId) {
+        return conversationId.endsWith(DELIVERY_SUFFIX)
+                ? conversationId.substring(0, conversationId.length() - DELIVERY_SUFFIX.length())
+                : conversationId;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String formatDate(long millis) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(millis));
+    }
+}
@@ -0,0 +1,239 @@
+package study.masystems.purchasingsystem.journal;
+
+import jade.util.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed size records are appended by agent threads to a lock free ring buffer and copied
+ * by a drainer thread to a memory mapped file. Writers never wait: a record is dropped
+ * if the ring buffer is full.
+ * <p>
+ * File layout (little endian): header of {@link #HEADER_SIZE} bytes (magic, version, record size,
+ * start time in milliseconds), then records of {@link #RECORD_SIZE} bytes:
+ * <pre>
+ * 0  long time    nanoseconds since start
+ * 8  int  type    {@link EventType} code
+ * 12 int  agent   string id
+ * 16 int  conversation string id
+ * 20 int  peer    string id
+ * 24 int  code
+ * 28 int  count
+ * 32 long value
+ * 40 long extra
+ * </pre>
+ * String records keep string id, length in bytes and chunk offset in agent, conversation and peer,
+ * chunk bytes from offset 24.
+ */
+public class JournalWriter implements Closeable {
+    static final int MAGIC = 0x4c4e524a; // "JRNL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 48;
+
+    static final int TIME = 0;
+    static final int TYPE = 8;
+    static final int AGENT = 12;
+    static final int CONVERSATION = 16;
+    static final int PEER = 20;
+    static final int CODE = 24;
+    static final int COUNT = 28;
+    static final int VALUE = 32;
+    static final int EXTRA = 40;
+    static final int STRING_CHUNK = RECORD_SIZE - CODE;
+
+    private static final int SEGMENT_RECORDS = 1 << 20;
+    private static final long DRAIN_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static Logger logger = Logger.getMyLogger(JournalWriter.class.getName());
+
+    private final long startNanos = System.nanoTime();
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer ring;
+    // Sequence + 1 of the record published in the slot.
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long drained = 0;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer segment;
+    private long written = 0;
+
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity ring buffer size in records, power of two.
+     */
+    public JournalWriter(File journalFile, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.ring = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.published = new AtomicLongArray(capacity);
+
+        this.file = new RandomAccessFile(journalFile, "rw");
+        this.channel = file.getChannel();
+        file.setLength(0);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0)
+                .putLong(System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        header.flip();
+        channel.write(header, 0);
+
+        drainer = new Thread(this::drain, "journal-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @return <tt>false</tt> if the record is dropped.
+     */
+    public boolean append(EventType type, int agent, int conversation, int peer, int code, int count,
+                          long value, long extra) {
+        final long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        final int position = (int) (sequence & mask) * RECORD_SIZE;
+        ring.putLong(position + TIME, System.nanoTime() - startNanos);
+        ring.putInt(position + TYPE, type.getCode());
+        ring.putInt(position + AGENT, agent);
+        ring.putInt(position + CONVERSATION, conversation);
+        ring.putInt(position + PEER, peer);
+        ring.putInt(position + CODE, code);
+        ring.putInt(position + COUNT, count);
+        ring.putLong(position + VALUE, value);
+        ring.putLong(position + EXTRA, extra);
+        published.lazySet((int) (sequence & mask), sequence + 1);
+        return true;
+    }
+
+    /**
+     * Append string in chunks of {@link #STRING_CHUNK} bytes.
+     *
+     * @return <tt>false</tt> if any chunk is dropped, the string cannot be resolved then.
+     */
+    public boolean appendString(int id, byte[] bytes) {
+        int offset = 0;
+        do {
+            final long sequence = claim();
+            if (sequence < 0) {
+                return false;
+            }
+            final int position = (int) (sequence & mask) * RECORD_SIZE;
+            final int length = Math.min(STRING_CHUNK, bytes.length - offset);
+            ring.putLong(position + TIME, System.nanoTime() - startNanos);
+            ring.putInt(position + TYPE, EventType.STRING.getCode());
+            ring.putInt(position + AGENT, id);
+            ring.putInt(position + CONVERSATION, bytes.length);
+            ring.putInt(position + PEER, offset);
+            for (int i = 0; i < STRING_CHUNK; i++) {
+                ring.put(position + CODE + i, i < length ? bytes[offset + i] : 0);
+            }
+            published.lazySet((int) (sequence & mask), sequence + 1);
+            offset += length;
+        } while (offset < bytes.length);
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private long claim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - drained >= capacity) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final long next = drained;
+                // Copy the published run up to the end of the ring buffer.
+                int count = 0;
+                while (count < capacity - (int) (next & mask)
+                        && published.get((int) ((next + count) & mask)) == next + count + 1) {
+                    count++;
+                }
+                if (count == 0) {
+                    if (!running && claimed.get() == next) {
+                        break;
+                    }
+                    LockSupport.parkNanos(DRAIN_PAUSE_NANOS);
+                    continue;
+                }
+                write((int) (next & mask), count);
+                drained = next + count;
+            }
+            if (segment != null) {
+                segment.force();
+            }
+        } catch (IOException e) {
+            logger.log(Logger.SEVERE, "Journal is stopped: " + e.getMessage());
+            running = false;
+        }
+    }
+
+    private void write(int slot, int count) throws IOException {
+        int copied = 0;
+        while (copied < count) {
+            if (segment == null || !segment.hasRemaining()) {
+                if (segment != null) {
+                    segment.force();
+                }
+                final long position = HEADER_SIZE + written * RECORD_SIZE;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_RECORDS * RECORD_SIZE);
+            }
+            final int records = Math.min(count - copied, segment.remaining() / RECORD_SIZE);
+            final ByteBuffer source = ring.duplicate();
+            source.position((slot + copied) * RECORD_SIZE);
+            source.limit((slot + copied + records) * RECORD_SIZE);
+            segment.put(source);
+            copied += records;
+            written += records;
+        }
+    }
+
+    /**
+     * Drain the ring buffer and cut the unwritten tail of the file.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.truncate(HEADER_SIZE + written * RECORD_SIZE);
+        } catch (IOException e) {
+            // The mapped tail stays zeroed, readers stop at the first empty record.
+        }
+        file.close();
+    }
+}
@@ -0,0 +1,576 @@
+package study.masystems.purchasingsystem.journal;
+
+import jade.util.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only log of purchase events of one agent, the agent rebuilds its purchases from it after a crash.
+ * <p>
+ * Agent threads only queue records. A committer thread shared by all logs writes queued records of a log
+ * to the memory mapped file at once and forces them to disk by the {@link FsyncPolicy}, so every record
+ * queued while the previous write was forced joins the next group commit.
+ * The log keeps the compacted state: the last record of each key of unsettled purchases.
+ * When the log grows above the compaction size, the state is written to the snapshot file and the log is cut.
+ * <p>
+ * Files {@code NAME.snapshot} and {@code NAME.log} in the journal directory have the same layout (big endian):
+ * magic and version, then records of body length, CRC32 of the body and the body. Reading stops at the first
+ * empty or damaged record, the torn tail of the log is cut on open.
+ */
+public class PurchaseLog implements Closeable {
+    /**
+     * Directory of durable logs, logs are disabled if the property is not set.
+     */
+    public static final String DIRECTORY_PROPERTY = "purchasingsystem.journal.dir";
+    public static final String FSYNC_PROPERTY = "purchasingsystem.journal.fsync";
+    public static final String FSYNC_INTERVAL_PROPERTY = "purchasingsystem.journal.fsync.interval";
+    public static final String COMPACT_SIZE_PROPERTY = "purchasingsystem.journal.compact";
+
+    public enum FsyncPolicy {
+        /** Force every group commit. */
+        ALWAYS,
+        /** Force at most once per interval, records of the last interval may be lost. */
+        INTERVAL,
+        /** Leave the flush to the operating system. */
+        NEVER
+    }
+
+    static final int MAGIC = 0x504c4f47; // "PLOG"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    // Body length and CRC32.
+    static final int FRAME_SIZE = 8;
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int NO_VALUE = -1;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static Logger logger = Logger.getMyLogger(PurchaseLog.class.getName());
+
+    /**
+     * Log, which ignores all records.
+     */
+    public static final PurchaseLog DISABLED = new PurchaseLog();
+
+    // Logs with queued records and all open logs for interval forces.
+    private static final BlockingQueue<PurchaseLog> scheduled = new LinkedBlockingQueue<>();
+    private static final Set<PurchaseLog> openLogs = ConcurrentHashMap.newKeySet();
+    private static Thread committer;
+
+    private final boolean enabled;
+    private final File logFile;
+    private final File snapshotFile;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long compactSize;
+
+    private final ConcurrentLinkedQueue<PurchaseRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean queued = new AtomicBoolean();
+    // Set once the log is closed or stopped by a write error, records are not queued any more.
+    private volatile boolean stopped = false;
+    private final CompactedState state = new CompactedState();
+    private final List<PurchaseRecord> recovered;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private ByteBuffer body = ByteBuffer.allocate(256);
+    private final CRC32 crc = new CRC32();
+    private long size;
+    private boolean unforced = false;
+    private long lastForceNanos = System.nanoTime();
+
+    private PurchaseLog() {
+        this.enabled = false;
+        this.logFile = null;
+        this.snapshotFile = null;
+        this.fsyncPolicy = FsyncPolicy.NEVER;
+        this.fsyncIntervalNanos = 0;
+        this.compactSize = 0;
+        this.recovered = Collections.emptyList();
+    }
+
+    /**
+     * Open the log and recover the compacted state from the snapshot and the log.
+     *
+     * @param compactSize log size in bytes, which starts the compaction.
+     */
+    public PurchaseLog(File directory, String name, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                       long compactSize) throws IOException {
+        this.enabled = true;
+        final String fileName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.logFile = new File(directory, fileName + LOG_SUFFIX);
+        this.snapshotFile = new File(directory, fileName + SNAPSHOT_SUFFIX);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.compactSize = compactSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        read(snapshotFile);
+        final long validSize = read(logFile);
+        this.recovered = state.records();
+
+        file = new RandomAccessFile(logFile, "rw");
+        channel = file.getChannel();
+        if (validSize < HEADER_SIZE) {
+            writeHeader(channel);
+            size = HEADER_SIZE;
+        } else {
+            size = validSize;
+        }
+        channel.truncate(size);
+        openLogs.add(this);
+        startCommitter();
+    }
+
+    /**
+     * @return log of the agent configured by system properties, disabled log if the directory is not set.
+     */
+    public static PurchaseLog open(String agentName) {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || directory.isEmpty()) {
+            return DISABLED;
+        }
+        final FsyncPolicy policy = FsyncPolicy.valueOf(
+                System.getProperty(FSYNC_PROPERTY, FsyncPolicy.INTERVAL.name()).toUpperCase());
+        try {
+            return new PurchaseLog(new File(directory), agentName, policy,
+                    Long.getLong(FSYNC_INTERVAL_PROPERTY, 10), Long.getLong(COMPACT_SIZE_PROPERTY, 1 << 20));
+        } catch (IOException e) {
+            logger.log(Logger.WARNING, String.format("Cannot open purchase log of %s: %s", agentName, e.getMessage()));
+            return DISABLED;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return compacted records found on open, in the order of the first record of each key.
+     */
+    public List<PurchaseRecord> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @param conversationId conversation of the purchase, <tt>null</tt> for proposals of the whole agent.
+     */
+    public void proposalAccepted(String conversationId, String supplier, String language, byte[] content) {
+        append(PurchaseRecord.Type.PROPOSAL_ACCEPTED, conversationId, supplier, null, language, 0, content);
+    }
+
+    public void demandAdded(String conversationId, String buyer, String good, int count) {
+        append(PurchaseRecord.Type.DEMAND_ADDED, conversationId, buyer, good, null, count, null);
+    }
+
+    /**
+     * @param good the good, <tt>null</tt> for all goods of the buyer.
+     */
+    public void demandRemoved(String conversationId, String buyer, String good) {
+        append(PurchaseRecord.Type.DEMAND_REMOVED, conversationId, buyer, good, null, 0, null);
+    }
+
+    public void stateChanged(String conversationId, int state) {
+        append(PurchaseRecord.Type.STATE_CHANGED, conversationId, null, null, null, state, null);
+    }
+
+    public void orderConfirmed(String conversationId, String supplier) {
+        append(PurchaseRecord.Type.ORDER_CONFIRMED, conversationId, supplier, null, null, 0, null);
+    }
+
+    public void goodsReceived(String good, int count) {
+        append(PurchaseRecord.Type.GOODS_RECEIVED, null, null, good, null, count, null);
+    }
+
+    public void purchaseSettled(String conversationId) {
+        append(PurchaseRecord.Type.PURCHASE_SETTLED, conversationId, null, null, null, 0, null);
+    }
+
+    private void append(PurchaseRecord.Type type, String conversationId, String peer, String good, String language,
+                        int count, byte[] content) {
+        if (!enabled || stopped) {
+            return;
+        }
+        pending.add(new PurchaseRecord(type, conversationId, peer, good, language, count, content));
+        if (queued.compareAndSet(false, true)) {
+            scheduled.add(this);
+        }
+    }
+
+    /**
+     * Write and force queued records on the calling thread.
+     */
+    public synchronized void flush() {
+        commit();
+        if (channel != null && unforced) {
+            force();
+        }
+    }
+
+    /**
+     * Flush and close the log, it is recovered on the next open.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        flush();
+        stopped = true;
+        openLogs.remove(this);
+        segment = null;
+        try {
+            channel.truncate(size);
+            file.close();
+        } catch (IOException e) {
+            logger.log(Logger.WARNING, String.format("Cannot close purchase log %s: %s", logFile, e.getMessage()));
+        }
+        channel = null;
+    }
+
+    /**
+     * Close the log and delete its files, purchases of the agent are over.
+     */
+    public synchronized void delete() {
+        if (!enabled) {
+            return;
+        }
+        pending.clear();
+        close();
+        if (!logFile.delete() || (snapshotFile.exists() && !snapshotFile.delete())) {
+            logger.log(Logger.WARNING, "Cannot delete purchase log " + logFile);
+        }
+    }
+
+    /**
+     * Group commit: write all queued records, then force them by the policy.
+     */
+    synchronized void commit() {
+        queued.set(false);
+        if (channel == null) {
+            // Records appended while the log was stopping are dropped.
+            pending.clear();
+            return;
+        }
+        try {
+            PurchaseRecord record;
+            while ((record = pending.poll()) != null) {
+                write(record);
+                state.apply(record);
+                unforced = true;
+            }
+            if (unforced && (fsyncPolicy == FsyncPolicy.ALWAYS
+                    || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos))) {
+                force();
+            }
+            if (size >= compactSize) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.log(Logger.SEVERE, String.format("Purchase log %s is stopped: %s", logFile, e.getMessage()));
+            stopped = true;
+            pending.clear();
+            openLogs.remove(this);
+            channel = null;
+        }
+    }
+
+    /**
+     * Force records of the interval policy, which were not forced by commits.
+     */
+    synchronized void forceIfDue(long now) {
+        if (channel != null && unforced && fsyncPolicy == FsyncPolicy.INTERVAL
+                && now - lastForceNanos >= fsyncIntervalNanos) {
+            force();
+        }
+    }
+
+    private void force() {
+        if (segment != null) {
+            segment.force();
+        }
+        unforced = false;
+        lastForceNanos = System.nanoTime();
+    }
+
+    private void write(PurchaseRecord record) throws IOException {
+        encode(record);
+        final int length = body.remaining();
+        if (segment == null || segment.remaining() < FRAME_SIZE + length) {
+            if (segment != null && unforced && fsyncPolicy != FsyncPolicy.NEVER) {
+                segment.force();
+            }
+            // The new segment starts right after the last record, there is no gap of zeros between records.
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, size, Math.max(SEGMENT_SIZE, FRAME_SIZE + length));
+        }
+        segment.putInt(length).putInt(checksum(body)).put(body);
+        size += FRAME_SIZE + length;
+    }
+
+    /**
+     * Write the compacted state to the snapshot and cut the log.
+     * The snapshot replaces the old one atomically, if the log is not cut after that,
+     * replay of the whole log over the snapshot gives the same state.
+     */
+    private void compact() throws IOException {
+        final File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try (RandomAccessFile snapshot = new RandomAccessFile(temporary, "rw");
+             FileChannel snapshotChannel = snapshot.getChannel()) {
+            snapshotChannel.truncate(0);
+            writeHeader(snapshotChannel);
+            snapshotChannel.position(HEADER_SIZE);
+            final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+            for (PurchaseRecord record : state.records()) {
+                encode(record);
+                frame.clear();
+                frame.putInt(body.remaining()).putInt(checksum(body)).flip();
+                final ByteBuffer[] buffers = {frame, body};
+                while (body.hasRemaining()) {
+                    snapshotChannel.write(buffers);
+                }
+            }
+            snapshotChannel.force(true);
+        }
+        Files.move(temporary.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segment = null;
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        size = HEADER_SIZE;
+        unforced = false;
+    }
+
+    private static void writeHeader(FileChannel target) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        target.write(header, 0);
+    }
+
+    private int checksum(ByteBuffer buffer) {
+        crc.reset();
+        crc.update(buffer.array(), buffer.position(), buffer.remaining());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Body: type, count, conversation id, peer, good, language and content, strings and content prefixed with length.
+     */
+    private void encode(PurchaseRecord record) {
+        final byte[] conversationId = bytes(record.getConversationId());
+        final byte[] peer = bytes(record.getPeer());
+        final byte[] good = bytes(record.getGood());
+        final byte[] language = bytes(record.getLanguage());
+        final byte[] content = record.getContent();
+        final int length = 1 + 4 + 5 * 4 + length(conversationId) + length(peer) + length(good) + length(language)
+                + length(content);
+        if (body.capacity() < length) {
+            body = ByteBuffer.allocate(Math.max(length, body.capacity() * 2));
+        }
+        body.clear();
+        body.put((byte) record.getType().getCode()).putInt(record.getCount());
+        put(conversationId);
+        put(peer);
+        put(good);
+        put(language);
+        put(content);
+        body.flip();
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private void put(byte[] value) {
+        if (value == null) {
+            body.putInt(NO_VALUE);
+        } else {
+            body.putInt(value.length).put(value);
+        }
+    }
+
+    /**
+     * Apply records of the file to the state.
+     *
+     * @return size of the file up to the first empty or damaged record, 0 if the file is missing or not a log.
+     */
+    private long read(File source) throws IOException {
+        if (!source.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(source, "r");
+             FileChannel inputChannel = input.getChannel()) {
+            final long fileSize = inputChannel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                return 0;
+            }
+            // Read into the heap, the log file is cut and mapped again after recovery.
+            final ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+            while (buffer.hasRemaining() && inputChannel.read(buffer) > 0) {
+                // Read the whole file.
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC) {
+                logger.log(Logger.WARNING, "Not a purchase log: " + source);
+                return 0;
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                logger.log(Logger.WARNING, String.format("Purchase log %s of version %d is not recovered",
+                        source, version));
+                return 0;
+            }
+            while (buffer.remaining() >= FRAME_SIZE) {
+                final int start = buffer.position();
+                final int length = buffer.getInt();
+                final int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    return start;
+                }
+                final byte[] recordBody = new byte[length];
+                buffer.get(recordBody);
+                crc.reset();
+                crc.update(recordBody, 0, length);
+                final PurchaseRecord record = checksum == (int) crc.getValue() ? decode(ByteBuffer.wrap(recordBody)) : null;
+                if (record == null) {
+                    return start;
+                }
+                state.apply(record);
+            }
+            return buffer.position();
+        }
+    }
+
+    private static PurchaseRecord decode(ByteBuffer buffer) {
+        try {
+            final PurchaseRecord.Type type = PurchaseRecord.Type.of(buffer.get());
+            if (type == null) {
+                return null;
+            }
+            final int count = buffer.getInt();
+            final String conversationId = string(buffer);
+            final String peer = string(buffer);
+            final String good = string(buffer);
+            final String language = string(buffer);
+            final byte[] content = content(buffer);
+            return new PurchaseRecord(type, conversationId, peer, good, language, count, content);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        final byte[] value = content(buffer);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] content(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == NO_VALUE) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    private static synchronized void startCommitter() {
+        if (committer != null) {
+            return;
+        }
+        committer = new Thread(PurchaseLog::commitLoop, "purchase-log-committer");
+        committer.setDaemon(true);
+        committer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> openLogs.forEach(PurchaseLog::flush),
+                "purchase-log-shutdown"));
+    }
+
+    private static void commitLoop() {
+        final long checkNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        long nextCheck = System.nanoTime() + checkNanos;
+        while (true) {
+            try {
+                final PurchaseLog log = scheduled.poll(1, TimeUnit.MILLISECONDS);
+                if (log != null) {
+                    log.commit();
+                }
+                final long now = System.nanoTime();
+                if (now >= nextCheck) {
+                    openLogs.forEach(open -> open.forceIfDue(now));
+                    nextCheck = now + checkNanos;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The last record of each key by conversation, settled conversations are dropped.
+     */
+    private static class CompactedState {
+        private static final String NO_CONVERSATION = "";
+
+        private final Map<String, Map<String, PurchaseRecord>> conversations = new LinkedHashMap<>();
+
+        void apply(PurchaseRecord record) {
+            final String conversationId = record.getConversationId() == null
+                    ? NO_CONVERSATION : record.getConversationId();
+            switch (record.getType()) {
+                case PURCHASE_SETTLED:
+                    conversations.remove(conversationId);
+                    break;
+                case DEMAND_REMOVED: {
+                    final Map<String, PurchaseRecord> records = conversations.get(conversationId);
+                    if (records != null) {
+                        records.values().removeIf(demand -> demand.getType() == PurchaseRecord.Type.DEMAND_ADDED
+                                && Objects.equals(demand.getPeer(), record.getPeer())
+                                && (record.getGood() == null || Objects.equals(demand.getGood(), record.getGood())));
+                    }
+                    break;
+                }
+                default:
+                    conversations.computeIfAbsent(conversationId, key -> new LinkedHashMap<>())
+                            .put(record.getKey(), record);
+                    break;
+            }
+        }
+
+        List<PurchaseRecord> records() {
+            final List<PurchaseRecord> records = new ArrayList<>();
+            conversations.values().forEach(conversation -> records.addAll(conversation.values()));
+            return records;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package study.masystems.purchasingsystem.journal;
+
+/**
+ * Durable purchase event of {@link PurchaseLog}. Meaning of fields depends on the type:
+ * peer is the supplier of proposals and orders or the buyer of demand, count is the quantity or the state code,
+ * language is the codec language of the content.
+ */
+public class PurchaseRecord {
+    public enum Type {
+        /** Proposals of the supplier, encoded in the content. */
+        PROPOSAL_ACCEPTED(1),
+        DEMAND_ADDED(2),
+        /** Demand of the peer for the good, for all goods if the good is <tt>null</tt>. */
+        DEMAND_REMOVED(3),
+        STATE_CHANGED(4),
+        ORDER_CONFIRMED(5),
+        GOODS_RECEIVED(6),
+        /** The purchase is over, its records are dropped on compaction. */
+        PURCHASE_SETTLED(7);
+
+        private static final Type[] byCode = new Type[8];
+
+        static {
+            for (Type type : values()) {
+                byCode[type.code] = type;
+            }
+        }
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return record type or <tt>null</tt> for unknown code.
+         */
+        public static Type of(int code) {
+            return code > 0 && code < byCode.length ? byCode[code] : null;
+        }
+    }
+
+    private final Type type;
+    private final String conversationId;
+    private final String peer;
+    private final String good;
+    private final String language;
+    private final int count;
+    private final byte[] content;
+
+    PurchaseRecord(Type type, String conversationId, String peer, String good, String language, int count,
+                   byte[] content) {
+        this.type = type;
+        this.conversationId = conversationId;
+        this.peer = peer;
+        this.good = good;
+        this.language = language;
+        this.count = count;
+        this.content = content;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return conversation of the purchase, <tt>null</tt> for records out of purchases.
+     */
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * @return full agent name of the supplier or the buyer.
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    public String getGood() {
+        return good;
+    }
+
+    /**
+     * @return codec language of the content, <tt>null</tt> for records without content.
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return key of the record within its conversation, later record with the same key replaces this one.
+     */
+    String getKey() {
+        return type.getCode() + "|" + peer + "|" + good;
+    }
+}
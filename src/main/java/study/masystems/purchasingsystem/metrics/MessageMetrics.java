@@ -0,0 +1,80 @@
+package study.masystems.purchasingsystem.metrics;
+
+import jade.lang.acl.ACLMessage;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class MessageMetrics implements MessageMetricsMXBean {
+    // Performatives are numbered from 0, the last slot is for ACLMessage.UNKNOWN and unknown numbers.
+    private static final int PERFORMATIVES = ACLMessage.PROPAGATE + 2;
+
+    private final AtomicLongArray sent = new AtomicLongArray(PERFORMATIVES);
+    private final AtomicLongArray received = new AtomicLongArray(PERFORMATIVES);
+
+    MessageMetrics() {
+    }
+
+    public void sent(int performative, int receivers) {
+        sent.addAndGet(slot(performative), receivers);
+    }
+
+    public void received(int performative) {
+        received.incrementAndGet(slot(performative));
+    }
+
+    @Override
+    public long getSent() {
+        return total(sent);
+    }
+
+    @Override
+    public long getReceived() {
+        return total(received);
+    }
+
+    @Override
+    public Map<String, Long> getSentByPerformative() {
+        return byPerformative(sent);
+    }
+
+    @Override
+    public Map<String, Long> getReceivedByPerformative() {
+        return byPerformative(received);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < PERFORMATIVES; i++) {
+            sent.set(i, 0);
+            received.set(i, 0);
+        }
+    }
+
+    private static int slot(int performative) {
+        return performative >= 0 && performative < PERFORMATIVES - 1 ? performative : PERFORMATIVES - 1;
+    }
+
+    private static long total(AtomicLongArray counters) {
+        long total = 0;
+        for (int i = 0; i < counters.length(); i++) {
+            total += counters.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Non zero counters by performative name.
+     */
+    private static Map<String, Long> byPerformative(AtomicLongArray counters) {
+        final Map<String, Long> result = new TreeMap<>();
+        for (int i = 0; i < counters.length(); i++) {
+            final long value = counters.get(i);
+            if (value > 0) {
+                result.put(i == PERFORMATIVES - 1 ? "UNKNOWN" : ACLMessage.getPerformative(i), value);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package study.masystems.purchasingsystem.metrics;
+
+import java.util.Map;
+
+/**
+ * Agent messages by performative. Sent messages are counted once per receiver.
+ */
+public interface MessageMetricsMXBean {
+    long getSent();
+
+    long getReceived();
+
+    Map<String, Long> getSentByPerformative();
+
+    Map<String, Long> getReceivedByPerformative();
+
+    void reset();
+}
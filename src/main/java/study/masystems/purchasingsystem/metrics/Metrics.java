@@ -0,0 +1,133 @@
+package study.masystems.purchasingsystem.metrics;
+
+import jade.util.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Process wide latency histograms of negotiation phases and message counters.
+ * Exposed as MXBeans under {@link #DOMAIN} and as a text dump.
+ */
+public class Metrics {
+    public static final String DOMAIN = "study.masystems.purchasingsystem";
+
+    private static Logger logger = Logger.getMyLogger(Metrics.class.getName());
+
+    private static final Map<Phase, PhaseMetrics> phases = new EnumMap<>(Phase.class);
+    private static final MessageMetrics messages = new MessageMetrics();
+    private static boolean registered = false;
+    private static ScheduledExecutorService dumpExecutor;
+
+    static {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new PhaseMetrics(phase));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static PhaseMetrics phase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @param startNanos phase start time from {@link System#nanoTime()}.
+     */
+    public static void record(Phase phase, long startNanos) {
+        phases.get(phase).recordSince(startNanos);
+    }
+
+    public static MessageMetrics messages() {
+        return messages;
+    }
+
+    public static void messageSent(int performative, int receivers) {
+        messages.sent(performative, receivers);
+    }
+
+    public static void messageReceived(int performative) {
+        messages.received(performative);
+    }
+
+    public static void reset() {
+        phases.values().forEach(PhaseMetrics::reset);
+        messages.reset();
+    }
+
+    /**
+     * Register MXBeans in the platform MBean server. Repeated calls do nothing.
+     */
+    public static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (PhaseMetrics metrics : phases.values()) {
+                server.registerMBean(metrics, new ObjectName(DOMAIN + ":type=Phase,name=" + metrics.getPhase()));
+            }
+            server.registerMBean(messages, new ObjectName(DOMAIN + ":type=Messages"));
+            registered = true;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Cannot register metrics MBeans: " + e);
+        }
+    }
+
+    /**
+     * Log the text dump periodically from a daemon thread.
+     */
+    public static synchronized void startDump(long periodSeconds) {
+        if (dumpExecutor != null) {
+            return;
+        }
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpExecutor.scheduleAtFixedRate(() -> logger.log(Level.INFO, format()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopDump() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+        }
+    }
+
+    /**
+     * Text dump: one line per phase with latency in milliseconds, reply timeouts of phases, then message counters.
+     */
+    public static String format() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-22s %8s %10s %10s %10s %10s %10s%n",
+                "phase", "count", "mean", "p50", "p90", "p99", "max"));
+        for (PhaseMetrics metrics : phases.values()) {
+            builder.append(String.format("%-22s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    metrics.getPhase(), metrics.getCount(), metrics.getMeanMillis(), metrics.getP50Millis(),
+                    metrics.getP90Millis(), metrics.getP99Millis(), metrics.getMaxMillis()));
+        }
+        for (PhaseMetrics metrics : phases.values()) {
+            if (metrics.getTimeoutsChosen() > 0) {
+                builder.append(String.format("%-22s timeout last %d ms, p50 %.1f ms, max %.1f ms, expired %d of %d%n",
+                        metrics.getPhase(), metrics.getLastTimeoutMillis(), metrics.getTimeoutP50Millis(),
+                        metrics.getTimeoutMaxMillis(), metrics.getTimeoutsExpired(), metrics.getTimeoutsChosen()));
+            }
+        }
+        builder.append(String.format("messages sent %d %s%n", messages.getSent(), messages.getSentByPerformative()));
+        builder.append(String.format("messages received %d %s%n", messages.getReceived(),
+                messages.getReceivedByPerformative()));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package study.masystems.purchasingsystem.metrics;
+
+/**
+ * Negotiation phases with measured latency.
+ */
+public enum Phase {
+    /** Customer waits for suppliers in the DF. */
+    SUPPLIER_DISCOVERY,
+    /** Customer sends CFP to suppliers and gathers proposals. */
+    PROPOSAL_GATHERING,
+    /** Purchase is open for buyers. */
+    PURCHASE,
+    /** Customer places orders to suppliers. */
+    ORDER_PLACEMENT,
+    /** Buyer sends CFP to customers and gathers proposals. */
+    BUYER_CFP,
+    /** Buyer negotiates delivery with other buyers. */
+    DELIVERY_NEGOTIATION,
+    /** Buyer collects destinations and receives goods. */
+    GOODS_RECEIVING
+}
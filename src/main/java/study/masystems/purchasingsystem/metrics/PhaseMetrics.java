@@ -0,0 +1,104 @@
+package study.masystems.purchasingsystem.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PhaseMetrics implements PhaseMetricsMXBean {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Phase phase;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LatencyHistogram timeouts = new LatencyHistogram();
+    private final AtomicLong lastTimeout = new AtomicLong();
+    private final AtomicLong timeoutsExpired = new AtomicLong();
+
+    PhaseMetrics(Phase phase) {
+        this.phase = phase;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param startNanos phase start time from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordTimeout(long timeoutMillis) {
+        timeouts.record(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        lastTimeout.set(timeoutMillis);
+    }
+
+    public void timeoutExpired() {
+        timeoutsExpired.incrementAndGet();
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return histogram.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return histogram.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return histogram.getPercentile(90) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return histogram.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getLastTimeoutMillis() {
+        return lastTimeout.get();
+    }
+
+    @Override
+    public double getTimeoutP50Millis() {
+        return timeouts.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTimeoutMaxMillis() {
+        return timeouts.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getTimeoutsExpired() {
+        return timeoutsExpired.get();
+    }
+
+    public long getTimeoutsChosen() {
+        return timeouts.getCount();
+    }
+
+    @Override
+    public void reset() {
+        histogram.reset();
+        timeouts.reset();
+        lastTimeout.set(0);
+        timeoutsExpired.set(0);
+    }
+}
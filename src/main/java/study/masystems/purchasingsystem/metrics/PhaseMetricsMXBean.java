@@ -0,0 +1,34 @@
+package study.masystems.purchasingsystem.metrics;
+
+/**
+ * Latency and reply timeouts of a negotiation phase, in milliseconds.
+ */
+public interface PhaseMetricsMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    /**
+     * @return the last reply timeout chosen for the phase.
+     */
+    long getLastTimeoutMillis();
+
+    double getTimeoutP50Millis();
+
+    double getTimeoutMaxMillis();
+
+    /**
+     * @return count of phases ended by the timeout before all replies.
+     */
+    long getTimeoutsExpired();
+
+    void reset();
+}
@@ -0,0 +1,125 @@
+package study.masystems.purchasingsystem.simulation;
+
+import jade.util.Logger;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+import jade.wrapper.StaleProxyException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Create and start agents in batches, in parallel across local containers.
+ * Agents go to the container of their spec or are spread across containers round-robin.
+ * Agents wait on a {@link StartBarrier} and begin to work together when the whole population is started.
+ */
+public class AgentBootstrap {
+    private static Logger logger = Logger.getMyLogger(AgentBootstrap.class.getName());
+
+    private final List<? extends ContainerController> containers;
+    private int batchSize = 256;
+    private long readyTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+
+    public AgentBootstrap(List<? extends ContainerController> containers) {
+        if (containers.isEmpty()) {
+            throw new IllegalArgumentException("At least one container is required.");
+        }
+        this.containers = containers;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setReadyTimeoutMillis(long readyTimeoutMillis) {
+        this.readyTimeoutMillis = readyTimeoutMillis;
+    }
+
+    /**
+     * Start the population and release it when all agents are started.
+     *
+     * @return time to ready population in milliseconds, or -1 if population is not ready before timeout.
+     */
+    public long start(List<AgentSpec> specs) throws InterruptedException {
+        final long startTime = System.nanoTime();
+        final StartBarrier barrier = new StartBarrier(specs.size(), readyTimeoutMillis);
+        final AtomicInteger failed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(containers.size());
+        try {
+            final List<List<AgentSpec>> partition = new ArrayList<>(containers.size());
+            for (int i = 0; i < containers.size(); i++) {
+                partition.add(new ArrayList<>());
+            }
+            // Agents without container are spread round-robin.
+            int next = 0;
+            for (AgentSpec spec : specs) {
+                int container = spec.getContainer();
+                if (container < 0 || container >= containers.size()) {
+                    container = next;
+                    next = (next + 1) % containers.size();
+                }
+                partition.get(container).add(spec);
+            }
+            List<Future<?>> parts = new ArrayList<>();
+            for (int i = 0; i < containers.size(); i++) {
+                final ContainerController container = containers.get(i);
+                final List<AgentSpec> part = partition.get(i);
+                parts.add(executor.submit(() -> startPart(container, part, barrier, failed)));
+            }
+            for (Future<?> part : parts) {
+                try {
+                    part.get();
+                } catch (ExecutionException e) {
+                    logger.log(Logger.SEVERE, "Agents start failed: " + e.getCause());
+                }
+            }
+            final long startedTime = System.nanoTime();
+
+            final boolean ready = barrier.awaitArrivals(readyTimeoutMillis, TimeUnit.MILLISECONDS);
+            final long readyTime = System.nanoTime();
+            logger.log(Level.INFO, String.format(
+                    "Started %d agents (%d failed) in %d containers in %d ms, ready in %d ms%s.",
+                    specs.size() - failed.get(), failed.get(), containers.size(),
+                    TimeUnit.NANOSECONDS.toMillis(startedTime - startTime),
+                    TimeUnit.NANOSECONDS.toMillis(readyTime - startTime),
+                    ready ? "" : String.format(", %d agents are not ready", barrier.getPending())));
+            return ready ? TimeUnit.NANOSECONDS.toMillis(readyTime - startTime) : -1;
+        } finally {
+            barrier.release();
+            executor.shutdown();
+        }
+    }
+
+    private void startPart(ContainerController container, List<AgentSpec> part,
+                           StartBarrier barrier, AtomicInteger failed) {
+        for (int from = 0; from < part.size(); from += batchSize) {
+            final List<AgentSpec> batch = part.subList(from, Math.min(from + batchSize, part.size()));
+            final List<AgentController> controllers = new ArrayList<>(batch.size());
+            for (AgentSpec spec : batch) {
+                final Object[] specArguments = spec.getArguments();
+                final Object[] arguments = Arrays.copyOf(specArguments, specArguments.length + 1);
+                arguments[specArguments.length] = barrier;
+                try {
+                    controllers.add(container.createNewAgent(spec.getName(), spec.getClassName(), arguments));
+                } catch (StaleProxyException e) {
+                    logger.log(Logger.WARNING, String.format("Agent %s creation failed: %s", spec.getName(), e));
+                    failed.incrementAndGet();
+                    barrier.skip();
+                }
+            }
+            for (AgentController controller : controllers) {
+                try {
+                    controller.start();
+                } catch (StaleProxyException e) {
+                    logger.log(Logger.WARNING, "Agent start failed: " + e);
+                    failed.incrementAndGet();
+                    barrier.skip();
+                }
+            }
+        }
+    }
+}
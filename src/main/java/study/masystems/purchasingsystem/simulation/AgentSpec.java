@@ -0,0 +1,43 @@
+package study.masystems.purchasingsystem.simulation;
+
+/**
+ * Name, class and start arguments of an agent to create, and optionally the container for it.
+ */
+public class AgentSpec {
+    public static final int ANY_CONTAINER = -1;
+
+    private final String name;
+    private final String className;
+    private final Object[] arguments;
+    private final int container;
+
+    public AgentSpec(String name, String className, Object[] arguments) {
+        this(name, className, arguments, ANY_CONTAINER);
+    }
+
+    /**
+     * @param container index of the container among {@link AgentBootstrap} containers.
+     */
+    public AgentSpec(String name, String className, Object[] arguments, int container) {
+        this.name = name;
+        this.className = className;
+        this.arguments = arguments;
+        this.container = container;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    public int getContainer() {
+        return container;
+    }
+}
@@ -0,0 +1,160 @@
+package study.masystems.purchasingsystem.simulation;
+
+import org.jgrapht.graph.SimpleWeightedGraph;
+import study.masystems.purchasingsystem.GoodInformation;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+
+import java.util.*;
+
+/**
+ * Seeded generator of synthetic agents population and city.
+ * The same seed and configuration always give the same population.
+ */
+public class PopulationGenerator {
+    private final Random random;
+    private final List<String> catalog;
+
+    private int goodsPerSupplier = 5;
+    private int goodsPerCustomer = 3;
+    private int goodsPerBuyer = 2;
+
+    private double costMin = 300;
+    private double costMax = 10000;
+    private int minimalQuantityMin = 10;
+    private int minimalQuantityMax = 40;
+    private int supplierDeliveryPeriodMax = 7;
+    // Stock of supplier in minimal quantities of the good.
+    private int stockLotsMin = 2;
+    private int stockLotsMax = 6;
+    private int customerQuantityMin = 1;
+    private int customerQuantityMax = 20;
+    private int buyerQuantityMin = 1;
+    private int buyerQuantityMax = 20;
+    private int needDeliveryPeriodMin = 8;
+    private int needDeliveryPeriodMax = 14;
+    private int moneyMin = 600;
+    private int moneyMax = 10000;
+    private int edgeWeightMin = 1;
+    private int edgeWeightMax = 10;
+
+    public PopulationGenerator(long seed, List<String> catalog) {
+        if (catalog.isEmpty()) {
+            throw new IllegalArgumentException("Catalog must not be empty.");
+        }
+        this.random = new Random(seed);
+        this.catalog = new ArrayList<>(catalog);
+    }
+
+    /**
+     * Catalog of goods with generated names.
+     */
+    public static List<String> createCatalog(int size) {
+        List<String> catalog = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            catalog.add("good-" + i);
+        }
+        return catalog;
+    }
+
+    public List<String> getCatalog() {
+        return catalog;
+    }
+
+    public void setGoodsPerSupplier(int goodsPerSupplier) {
+        this.goodsPerSupplier = goodsPerSupplier;
+    }
+
+    public void setGoodsPerCustomer(int goodsPerCustomer) {
+        this.goodsPerCustomer = goodsPerCustomer;
+    }
+
+    public void setGoodsPerBuyer(int goodsPerBuyer) {
+        this.goodsPerBuyer = goodsPerBuyer;
+    }
+
+    /**
+     * City is a square grid with random edge weights, vertices are numbered from 1 row by row.
+     *
+     * @param verticesCount lower bound of vertices count.
+     */
+    public SimpleWeightedGraph<Integer, WeightedEdge> generateCity(int verticesCount) {
+        final int side = Math.max(2, (int) Math.ceil(Math.sqrt(verticesCount)));
+        SimpleWeightedGraph<Integer, WeightedEdge> graph = new SimpleWeightedGraph<>(WeightedEdge.class);
+        for (int vertex = 1; vertex <= side * side; vertex++) {
+            graph.addVertex(vertex);
+        }
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                final int vertex = row * side + column + 1;
+                if (column + 1 < side) {
+                    graph.setEdgeWeight(graph.addEdge(vertex, vertex + 1), randInt(edgeWeightMin, edgeWeightMax));
+                }
+                if (row + 1 < side) {
+                    graph.setEdgeWeight(graph.addEdge(vertex, vertex + side), randInt(edgeWeightMin, edgeWeightMax));
+                }
+            }
+        }
+        return graph;
+    }
+
+    public HashMap<String, GoodInformation> generateSupplierGoods() {
+        HashMap<String, GoodInformation> goods = new HashMap<>();
+        final int deliveryPeriod = randInt(0, supplierDeliveryPeriodMax);
+        for (String good : selectGoods(goodsPerSupplier)) {
+            final double cost = costMin + random.nextDouble() * (costMax - costMin);
+            final int minimalQuantity = randInt(minimalQuantityMin, minimalQuantityMax);
+            goods.put(good, new GoodInformation(cost, minimalQuantity, deliveryPeriod,
+                    minimalQuantity * randInt(stockLotsMin, stockLotsMax)));
+        }
+        return goods;
+    }
+
+    public Map<String, GoodNeed> generateCustomerNeeds() {
+        return generateNeeds(goodsPerCustomer, customerQuantityMin, customerQuantityMax);
+    }
+
+    public Map<String, GoodNeed> generateBuyerNeeds() {
+        return generateNeeds(goodsPerBuyer, buyerQuantityMin, buyerQuantityMax);
+    }
+
+    public int generateMoney() {
+        return randInt(moneyMin, moneyMax);
+    }
+
+    /**
+     * @param verticesCount vertices are numbered from 1 to verticesCount.
+     */
+    public int generatePosition(int verticesCount) {
+        return randInt(1, verticesCount);
+    }
+
+    private Map<String, GoodNeed> generateNeeds(int count, int quantityMin, int quantityMax) {
+        Map<String, GoodNeed> goodNeeds = new HashMap<>();
+        for (String good : selectGoods(count)) {
+            goodNeeds.put(good, new GoodNeed(randInt(quantityMin, quantityMax),
+                    randInt(needDeliveryPeriodMin, needDeliveryPeriodMax)));
+        }
+        return goodNeeds;
+    }
+
+    /**
+     * Select distinct random goods from catalog.
+     */
+    private List<String> selectGoods(int count) {
+        count = Math.min(count, catalog.size());
+        List<String> selected = new ArrayList<>(count);
+        Set<Integer> indices = new HashSet<>();
+        while (selected.size() < count) {
+            final int index = random.nextInt(catalog.size());
+            if (indices.add(index)) {
+                selected.add(catalog.get(index));
+            }
+        }
+        return selected;
+    }
+
+    private int randInt(int min, int max) {
+        return random.nextInt((max - min) + 1) + min;
+    }
+}
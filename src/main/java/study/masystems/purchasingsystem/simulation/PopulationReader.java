@@ -0,0 +1,123 @@
+package study.masystems.purchasingsystem.simulation;
+
+import jade.util.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import study.masystems.purchasingsystem.GoodInformation;
+import study.masystems.purchasingsystem.GoodNeed;
+import study.masystems.purchasingsystem.agents.Buyer;
+import study.masystems.purchasingsystem.agents.Customer;
+import study.masystems.purchasingsystem.agents.Supplier;
+import study.masystems.purchasingsystem.jgrapht.DistanceOracle;
+
+import java.io.Reader;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Read population file <tt>{"agent name": {"class": ..., ...}, ...}</tt> into agent specs.
+ * The file is parsed once, agent by agent, and agents are decoded in parallel.
+ */
+public class PopulationReader {
+    private static Logger logger = Logger.getMyLogger(PopulationReader.class.getName());
+
+    private final DistanceOracle distanceOracle;
+
+    public PopulationReader(DistanceOracle distanceOracle) {
+        this.distanceOracle = distanceOracle;
+    }
+
+    public List<AgentSpec> read(Reader reader) throws JSONException {
+        List<Map.Entry<String, JSONObject>> agents = parse(new JSONTokener(reader));
+        return agents.parallelStream()
+                .map(entry -> decode(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parse top level object, each agent is kept as separate small object.
+     */
+    private static List<Map.Entry<String, JSONObject>> parse(JSONTokener tokener) throws JSONException {
+        List<Map.Entry<String, JSONObject>> agents = new ArrayList<>();
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("A JSON object text must begin with '{'");
+        }
+        char c = tokener.nextClean();
+        if (c == '}') {
+            return agents;
+        }
+        tokener.back();
+        while (true) {
+            final String name = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            final Object value = tokener.nextValue();
+            if (value instanceof JSONObject) {
+                agents.add(new AbstractMap.SimpleImmutableEntry<>(name, (JSONObject) value));
+            } else {
+                logger.log(Logger.WARNING, "Agent " + name + " is not an object");
+            }
+
+            c = tokener.nextClean();
+            if (c == '}') {
+                return agents;
+            }
+            if (c != ',') {
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * @return agent spec or <tt>null</tt>, if agent description is malformed.
+     */
+    private AgentSpec decode(String name, JSONObject agent) {
+        try {
+            final String className = agent.getString("class");
+            switch (className) {
+                case "study.masystems.purchasingsystem.agents.Customer":
+                    return new AgentSpec(name, Customer.class.getName(), new Object[]{
+                            agent.getInt("position"), decodeGoodNeeds(agent.getJSONObject("goodNeeds")), agent.getInt("money"),
+                            distanceOracle});
+                case "study.masystems.purchasingsystem.agents.Buyer":
+                    return new AgentSpec(name, Buyer.class.getName(), new Object[]{
+                            distanceOracle,
+                            distanceOracle.getShortestPath(agent.getInt("source"), agent.getInt("target")),
+                            decodeGoodNeeds(agent.getJSONObject("goodNeeds")),
+                            agent.getInt("money")});
+                case "study.masystems.purchasingsystem.agents.Supplier":
+                    return new AgentSpec(name, Supplier.class.getName(), new Object[]{
+                            decodeGoods(agent.getJSONObject("goods"))});
+                default:
+                    logger.log(Logger.WARNING, "Unrecognized agent class " + className);
+                    return null;
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            logger.log(Logger.WARNING, String.format("Malformed agent %s: %s", name, e.getMessage()));
+            return null;
+        }
+    }
+
+    private static Map<String, GoodNeed> decodeGoodNeeds(JSONObject goodNeedsJSON) {
+        Map<String, GoodNeed> goodNeeds = new HashMap<>();
+        for (String good : goodNeedsJSON.keySet()) {
+            final JSONObject goodNeed = goodNeedsJSON.getJSONObject(good);
+            goodNeeds.put(good, new GoodNeed(goodNeed.optInt("quantity"), goodNeed.optInt("deliveryPeriodDays")));
+        }
+        return goodNeeds;
+    }
+
+    private static HashMap<String, GoodInformation> decodeGoods(JSONObject goodsJSON) {
+        HashMap<String, GoodInformation> goods = new HashMap<>();
+        for (String good : goodsJSON.keySet()) {
+            final JSONObject information = goodsJSON.getJSONObject(good);
+            goods.put(good, new GoodInformation(information.optDouble("cost", 0.0),
+                    information.optInt("minimalQuantity"), information.optInt("deliveryPeriodDays"),
+                    information.optInt("stock", GoodInformation.UNLIMITED_STOCK)));
+        }
+        return goods;
+    }
+}
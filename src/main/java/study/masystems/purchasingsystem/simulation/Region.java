@@ -0,0 +1,63 @@
+package study.masystems.purchasingsystem.simulation;
+
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Region of a sharded deployment: DF of the region container and DFs of all regions.
+ * Agents get the region as a start argument and register in its DF instead of the platform default DF.
+ */
+public class Region {
+    private final int index;
+    private final AID df;
+    private final List<AID> searchedDFs;
+
+    public Region(int index, AID df, List<AID> regionDFs) {
+        this.index = index;
+        this.df = df;
+        final List<AID> searched = new ArrayList<>(regionDFs.size());
+        searched.add(df);
+        for (AID regionDF : regionDFs) {
+            if (!regionDF.equals(df)) {
+                searched.add(regionDF);
+            }
+        }
+        this.searchedDFs = Collections.unmodifiableList(searched);
+    }
+
+    /**
+     * @return region from agent arguments or <tt>null</tt>.
+     */
+    public static Region find(Object[] arguments) {
+        if (arguments == null) {
+            return null;
+        }
+        for (Object argument : arguments) {
+            if (argument instanceof Region) {
+                return (Region) argument;
+            }
+        }
+        return null;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public AID getDF() {
+        return df;
+    }
+
+    /**
+     * DF subscriptions do not cross DF federation, so agents subscribe to DFs of all regions
+     * and see the same market as in a single container.
+     *
+     * @return the region DF followed by DFs of other regions, where agents of the region look for counterparts.
+     */
+    public List<AID> getSearchedDFs() {
+        return searchedDFs;
+    }
+}
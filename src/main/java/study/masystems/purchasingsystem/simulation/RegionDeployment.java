@@ -0,0 +1,112 @@
+package study.masystems.purchasingsystem.simulation;
+
+import jade.core.AID;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.domain.df;
+import jade.util.Logger;
+import jade.wrapper.AgentContainer;
+import jade.wrapper.ControllerException;
+import study.masystems.purchasingsystem.jgrapht.CityPartition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Deployment of the population into regions of the city: one local container and one DF per region,
+ * connected to the running main container. Each agent is created in the container of its region
+ * and registers in the region DF, so neither a container nor a DF serves the whole population.
+ * Agents subscribe to DFs of all regions, so the market is the same as in one container.
+ */
+public class RegionDeployment {
+    private static Logger logger = Logger.getMyLogger(RegionDeployment.class.getName());
+
+    private final CityPartition partition;
+    private final List<AgentContainer> containers = new ArrayList<>();
+    private final List<Region> regions = new ArrayList<>();
+
+    /**
+     * Create region containers and start their DFs.
+     */
+    public RegionDeployment(Runtime runtime, String mainHost, CityPartition partition) throws ControllerException {
+        this.partition = partition;
+        final int count = partition.getRegionsCount();
+        final List<AID> dfs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            dfs.add(new AID(getDFName(i), AID.ISLOCALNAME));
+        }
+        for (int i = 0; i < count; i++) {
+            regions.add(new Region(i, dfs.get(i), dfs));
+        }
+
+        for (int i = 0; i < count; i++) {
+            Profile profile = new ProfileImpl();
+            profile.setParameter(Profile.MAIN_HOST, mainHost);
+            profile.setParameter(Profile.LOCAL_HOST, mainHost);
+            profile.setParameter(Profile.NO_MTP, "true");
+            profile.setParameter(Profile.CONTAINER_NAME, "region-" + i);
+            AgentContainer container = runtime.createAgentContainer(profile);
+            if (container == null) {
+                throw new ControllerException("Cannot create container of region " + i);
+            }
+            containers.add(container);
+        }
+        for (int i = 0; i < count; i++) {
+            containers.get(i).createNewAgent(getDFName(i), df.class.getName(), new Object[0]).start();
+        }
+        logger.log(Level.INFO, String.format("Started %d regions, vertices by region %s", count, getSizes()));
+    }
+
+    private static String getDFName(int region) {
+        return "df-region-" + region;
+    }
+
+    private List<Integer> getSizes() {
+        final List<Integer> sizes = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            sizes.add(partition.getSize(i));
+        }
+        return sizes;
+    }
+
+    public int getRegionsCount() {
+        return regions.size();
+    }
+
+    /**
+     * @return region of the vertex, the first region for vertices out of the city.
+     */
+    public int getRegion(int vertex) {
+        return Math.max(partition.getRegion(vertex), 0);
+    }
+
+    /**
+     * Containers of regions by region index, for {@link AgentBootstrap}.
+     */
+    public List<AgentContainer> getContainers() {
+        return containers;
+    }
+
+    /**
+     * @return spec of the agent in the container of the region, the region is passed to the agent as argument.
+     */
+    public AgentSpec place(AgentSpec spec, int region) {
+        final Object[] specArguments = spec.getArguments();
+        final Object[] arguments = Arrays.copyOf(specArguments, specArguments.length + 1);
+        arguments[specArguments.length] = regions.get(region);
+        return new AgentSpec(spec.getName(), spec.getClassName(), arguments, region);
+    }
+
+    public void kill() {
+        for (AgentContainer container : containers) {
+            try {
+                container.kill();
+            } catch (ControllerException e) {
+                logger.log(Logger.WARNING, "Region container shutdown failed: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package study.masystems.purchasingsystem.simulation;
+
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.util.Logger;
+import jade.wrapper.AgentContainer;
+import jade.wrapper.ContainerController;
+import jade.wrapper.ControllerException;
+import org.jgrapht.GraphPath;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import study.masystems.purchasingsystem.GoodCatalog;
+import study.masystems.purchasingsystem.agents.Buyer;
+import study.masystems.purchasingsystem.agents.Customer;
+import study.masystems.purchasingsystem.agents.Supplier;
+import study.masystems.purchasingsystem.jgrapht.CityPartition;
+import study.masystems.purchasingsystem.jgrapht.DistanceOracle;
+import study.masystems.purchasingsystem.jgrapht.WeightedEdge;
+import study.masystems.purchasingsystem.journal.Journal;
+import study.masystems.purchasingsystem.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless simulation of a synthetic population in one local main container,
+ * or in local containers of city regions with a DF per region.
+ * Reports purchases throughput, messages per purchase and latency of negotiation phases.
+ *
+ * Usage: SimulationRunner [--suppliers N] [--customers M] [--buyers K] [--goods G]
+ * [--vertices V] [--seed S] [--duration SECONDS] [--report-period SECONDS] [--journal FILE] [--regions R]
+ * <p>
+ * Empty journal FILE disables the journal.
+ */
+public class SimulationRunner {
+    private static Logger logger = Logger.getMyLogger(SimulationRunner.class.getName());
+
+    private int suppliers = 100;
+    private int customers = 100;
+    private int buyers = 1000;
+    private int goods = 50;
+    private int vertices = 400;
+    private long seed = 42;
+    private long durationSeconds = 120;
+    private long reportPeriodSeconds = 10;
+    private String journalFile = "purchasing.journal";
+    private int regions = 1;
+
+    private AgentContainer container;
+    private RegionDeployment deployment;
+
+    public static void main(String[] args) {
+        SimulationRunner runner = new SimulationRunner();
+        runner.parseArguments(args);
+        runner.run();
+        System.exit(0);
+    }
+
+    public void parseArguments(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--suppliers":
+                    suppliers = Integer.parseInt(value);
+                    break;
+                case "--customers":
+                    customers = Integer.parseInt(value);
+                    break;
+                case "--buyers":
+                    buyers = Integer.parseInt(value);
+                    break;
+                case "--goods":
+                    goods = Integer.parseInt(value);
+                    break;
+                case "--vertices":
+                    vertices = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--duration":
+                    durationSeconds = Long.parseLong(value);
+                    break;
+                case "--report-period":
+                    reportPeriodSeconds = Long.parseLong(value);
+                    break;
+                case "--journal":
+                    journalFile = value;
+                    break;
+                case "--regions":
+                    regions = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            final long readyMillis = start();
+            System.out.printf("Started %d agents, time to ready %s%n", suppliers + customers + buyers,
+                    readyMillis < 0 ? "n/a" : readyMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+            return;
+        } catch (ControllerException e) {
+            logger.log(Logger.SEVERE, "Deployment failed: " + e);
+            stop();
+            return;
+        }
+
+        report(durationSeconds, reportPeriodSeconds);
+        stop();
+    }
+
+    /**
+     * Start the platform and the population, with one container and DF per region for several regions.
+     *
+     * @return time to ready population in milliseconds, or -1 if population is not ready before timeout.
+     */
+    public long start() throws InterruptedException, ControllerException {
+        SimulationStats.reset();
+        Metrics.reset();
+        Metrics.registerMBeans();
+        if (!journalFile.isEmpty()) {
+            try {
+                Journal.start(new File(journalFile));
+            } catch (IOException e) {
+                logger.log(Logger.WARNING, "Journal is disabled: " + e);
+            }
+        }
+        PopulationGenerator generator = new PopulationGenerator(seed, PopulationGenerator.createCatalog(goods));
+        GoodCatalog.registerAll(generator.getCatalog());
+
+        long startTime = System.nanoTime();
+        SimpleWeightedGraph<Integer, WeightedEdge> graph = generator.generateCity(vertices);
+        final int verticesCount = graph.vertexSet().size();
+        DistanceOracle distanceOracle = new DistanceOracle(graph);
+        System.out.printf("City: %d vertices, %d edges, distances computed in %d ms%n",
+                verticesCount, graph.edgeSet().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        Runtime runtime = Runtime.instance();
+        Profile profile = new ProfileImpl();
+        profile.setParameter(Profile.GUI, "false");
+        profile.setParameter(Profile.NO_MTP, "true");
+        profile.setParameter(Profile.MAIN_HOST, "localhost");
+        profile.setParameter(Profile.LOCAL_HOST, "localhost");
+        container = runtime.createMainContainer(profile);
+        if (regions > 1) {
+            deployment = new RegionDeployment(runtime, "localhost", new CityPartition(distanceOracle, regions));
+        }
+
+        // Suppliers have no position, they are spread across regions.
+        List<AgentSpec> agents = new ArrayList<>(suppliers + customers + buyers);
+        for (int i = 0; i < suppliers; i++) {
+            agents.add(place(new AgentSpec("supplier_" + i, Supplier.class.getName(),
+                    new Object[]{generator.generateSupplierGoods()}), CityPartition.NO_REGION, i));
+        }
+        for (int i = 0; i < customers; i++) {
+            final int position = generator.generatePosition(verticesCount);
+            agents.add(place(new AgentSpec("customer_" + i, Customer.class.getName(), new Object[]{
+                    position,
+                    generator.generateCustomerNeeds(),
+                    generator.generateMoney(),
+                    distanceOracle}), position, i));
+        }
+        for (int i = 0; i < buyers; i++) {
+            final int source = generator.generatePosition(verticesCount);
+            int target = generator.generatePosition(verticesCount);
+            if (target == source) {
+                target = source % verticesCount + 1;
+            }
+            GraphPath<Integer, WeightedEdge> path = distanceOracle.getShortestPath(source, target);
+            agents.add(place(new AgentSpec("buyer_" + i, Buyer.class.getName(), new Object[]{
+                    distanceOracle, path, generator.generateBuyerNeeds(), generator.generateMoney()}), source, i));
+        }
+
+        final List<? extends ContainerController> containers = deployment != null
+                ? deployment.getContainers() : Collections.singletonList(container);
+        return new AgentBootstrap(containers).start(agents);
+    }
+
+    /**
+     * @param vertex position of the agent or {@link CityPartition#NO_REGION}, then the agent region is chosen by index.
+     */
+    private AgentSpec place(AgentSpec spec, int vertex, int index) {
+        if (deployment == null) {
+            return spec;
+        }
+        final int region = vertex == CityPartition.NO_REGION
+                ? index % deployment.getRegionsCount() : deployment.getRegion(vertex);
+        return deployment.place(spec, region);
+    }
+
+    /**
+     * Stop the journal and the platform.
+     */
+    public void stop() {
+        if (Journal.isEnabled()) {
+            System.out.printf("Journal %s, dropped records %d%n", journalFile, Journal.getDropped());
+            Journal.stop();
+        }
+        if (deployment != null) {
+            deployment.kill();
+            deployment = null;
+        }
+        if (container != null) {
+            try {
+                container.kill();
+            } catch (ControllerException e) {
+                logger.log(Logger.WARNING, "Container shutdown failed: " + e);
+            }
+            container = null;
+        }
+    }
+
+    private void report(long duration, long period) {
+        final long startTime = System.nanoTime();
+        final long endTime = startTime + TimeUnit.SECONDS.toNanos(duration);
+        long lastMessages = 0;
+        long lastFormed = 0;
+        while (System.nanoTime() < endTime) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(period));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            final long messages = SimulationStats.getMessagesSent();
+            final long formed = SimulationStats.getPurchasesFormed();
+            System.out.printf("[%4ds] purchases formed %d (+%d), completed %d, messages %d (+%d)%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime),
+                    formed, formed - lastFormed, SimulationStats.getPurchasesCompleted(),
+                    messages, messages - lastMessages);
+            lastMessages = messages;
+            lastFormed = formed;
+        }
+
+        final double seconds = (System.nanoTime() - startTime) / 1e9;
+        final long formed = SimulationStats.getPurchasesFormed();
+        final long messages = SimulationStats.getMessagesSent();
+        System.out.printf("Throughput: %.3f purchases formed/s, %.3f purchases completed/s, %.1f messages/s%n",
+                formed / seconds, SimulationStats.getPurchasesCompleted() / seconds, messages / seconds);
+        System.out.printf("Messages per formed purchase: %s%n",
+                formed == 0 ? "n/a" : String.format("%.1f", (double) messages / formed));
+        System.out.print(Metrics.format());
+    }
+}
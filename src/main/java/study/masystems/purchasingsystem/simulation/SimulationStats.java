@@ -0,0 +1,54 @@
+package study.masystems.purchasingsystem.simulation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters of purchasing activity.
+ */
+public class SimulationStats {
+    private static final AtomicLong messagesSent = new AtomicLong();
+    private static final AtomicLong purchasesFormed = new AtomicLong();
+    private static final AtomicLong purchasesCompleted = new AtomicLong();
+
+    private SimulationStats() {
+    }
+
+    /**
+     * @param count number of message receivers.
+     */
+    public static void messagesSent(int count) {
+        messagesSent.addAndGet(count);
+    }
+
+    /**
+     * Purchase is closed with enough demand for all goods.
+     */
+    public static void purchaseFormed() {
+        purchasesFormed.incrementAndGet();
+    }
+
+    /**
+     * Purchase orders are confirmed by all suppliers.
+     */
+    public static void purchaseCompleted() {
+        purchasesCompleted.incrementAndGet();
+    }
+
+    public static long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public static long getPurchasesFormed() {
+        return purchasesFormed.get();
+    }
+
+    public static long getPurchasesCompleted() {
+        return purchasesCompleted.get();
+    }
+
+    public static void reset() {
+        messagesSent.set(0);
+        purchasesFormed.set(0);
+        purchasesCompleted.set(0);
+    }
+}
@@ -0,0 +1,69 @@
+package study.masystems.purchasingsystem.simulation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start-up barrier of a population. Agents get the barrier as the last start argument,
+ * arrive at the beginning of setup and wait until the whole population is started,
+ * so timers of all agents begin together.
+ */
+public class StartBarrier {
+    private final CountDownLatch arrived;
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final long timeoutMillis;
+
+    /**
+     * @param parties       agents count.
+     * @param timeoutMillis agents never wait longer than timeout.
+     */
+    public StartBarrier(int parties, long timeoutMillis) {
+        this.arrived = new CountDownLatch(parties);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return barrier from agent arguments or <tt>null</tt>.
+     */
+    public static StartBarrier find(Object[] arguments) {
+        if (arguments == null || arguments.length == 0) {
+            return null;
+        }
+        final Object last = arguments[arguments.length - 1];
+        return last instanceof StartBarrier ? (StartBarrier) last : null;
+    }
+
+    /**
+     * Called by agent thread.
+     */
+    public void arriveAndAwait() {
+        arrived.countDown();
+        try {
+            released.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt>, if all agents arrived before timeout.
+     */
+    public boolean awaitArrivals(long timeout, TimeUnit unit) throws InterruptedException {
+        return arrived.await(timeout, unit);
+    }
+
+    /**
+     * Count agent, which failed to start, as arrived.
+     */
+    public void skip() {
+        arrived.countDown();
+    }
+
+    public long getPending() {
+        return arrived.getCount();
+    }
+
+    public void release() {
+        released.countDown();
+    }
+}
@@ -23,6 +23,10 @@ public class DataGenerator {
     private static int purchaseQuantityMin = 10;
     private static int purchaseQuantityMax = 40;
 
+    // Stock of supplier in minimal quantities of the good.
+    private static int stockLotsMin = 2;
+    private static int stockLotsMax = 6;
+
     private static int goodQuantityMin = 1;
     private static int goodQuantityMax = 20;
 
@@ -43,7 +47,8 @@ public class DataGenerator {
         for (String good: selectedGoods) {
             int minQuantity = getRandomPurchaseQuantity();
             double price = getRandomCost();
-            goodsTable.put(good, new GoodInformation(price, minQuantity, deliveryTime));
+            int stock = minQuantity * randInt(stockLotsMin, stockLotsMax);
+            goodsTable.put(good, new GoodInformation(price, minQuantity, deliveryTime, stock));
         }
 
         return goodsTable;
@@ -60,6 +65,10 @@ public class DataGenerator {
         return goodNeeds;
     }
 
+    public static List<String> getGoods() {
+        return Arrays.asList(goods);
+    }
+
     public static List<String> getRandomGoods() {
         int goodsExclude = random.nextInt(DataGenerator.goods.length);
         List<String> selectedGoods = new ArrayList<String>(Arrays.asList(goods));